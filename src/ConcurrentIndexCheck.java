@@ -0,0 +1,263 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks that a {@link ConcurrentInvertedIndex} really can be searched while it
+ * is being built. The same html files are indexed once by a plain
+ * {@link InvertedIndex} on one thread, and once by a concurrent index through
+ * a threaded {@link IndexPipeline} while other threads keep searching it.
+ *
+ * Every document's words are added in order, so whatever a search sees of a
+ * word in a document has to be the start of what the plain index has for it:
+ * positions that are out of order, missing in the middle or made up are torn
+ * postings. Search results can only have fewer matches than the plain index
+ * has, never more. Once the build is done, every word, position and search
+ * result has to be exactly the same as the plain index.
+ *
+ * Usage: <code>java ConcurrentIndexCheck -path html [-query queries] [-threads n] [-readers n]</code>
+ *
+ * @author Robert Macaibay
+ */
+public class ConcurrentIndexCheck {
+	//number of failures to print before giving up on the rest
+	private static final int REPORTED = 10;
+
+	/**
+	 * Builds both indexes, searches the concurrent one while it's being built,
+	 * and compares them afterwards. Exits with status 1 if anything didn't match.
+	 * @param args - command line arguments
+	 */
+	public static void main(String[] args) {
+		ArgumentMap am = new ArgumentMap(args);
+
+		if (!am.hasValue("-path")) {
+			System.out.println("There is no specified path.");
+			return;
+		}
+
+		int threads = WorkQueue.DEFAULT;
+		int readers = 2;
+		try {
+			if (am.hasValue("-threads"))
+				threads = Math.max(1, Integer.parseInt(am.getString("-threads")));
+			if (am.hasValue("-readers"))
+				readers = Math.max(1, Integer.parseInt(am.getString("-readers")));
+		} catch (NumberFormatException e) {
+			System.out.println("Threads and readers have to be numbers.");
+			return;
+		}
+
+		try {
+			Path[] htmlFiles = HTMLFinder.findHtml(am.getString("-path"));
+
+			//build the index everything is checked against one document at a time
+			InvertedIndex expected = new InvertedIndex();
+			IndexPipeline serial = new IndexPipeline(expected);
+			for (Path html : htmlFiles)
+				serial.add(html);
+
+			List<List<String>> queries = am.hasValue("-query") ? QueryReader.getQueries(am.getString("-query")) : wordQueries(expected);
+			if (queries.isEmpty()) {
+				System.out.println("There is nothing to search for.");
+				return;
+			}
+
+			List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+			ConcurrentInvertedIndex index = new ConcurrentInvertedIndex();
+
+			//search the index the whole time it's being built
+			WorkQueue queue = new WorkQueue(readers);
+			ReaderTask[] tasks = new ReaderTask[readers];
+			for (int i = 0; i < readers; i++) {
+				tasks[i] = new ReaderTask(index, expected, queries, failures, i);
+				queue.execute(tasks[i]);
+			}
+
+			IndexPipeline pipeline = new IndexPipeline(index, threads);
+			for (Path html : htmlFiles)
+				pipeline.add(html);
+			pipeline.finish();
+			pipeline.shutdown();
+
+			for (ReaderTask task : tasks)
+				task.stop();
+			queue.finish();
+			queue.shutdown();
+
+			long postings = 0;
+			long searches = 0;
+			for (ReaderTask task : tasks) {
+				postings += task.postings.get();
+				searches += task.searches.get();
+			}
+
+			compare(index, expected, queries, failures);
+
+			if (!failures.isEmpty()) {
+				System.out.println(failures.size() + " checks failed:");
+				for (String failure : failures.subList(0, Math.min(REPORTED, failures.size())))
+					System.out.println(failure);
+				System.exit(1);
+			}
+
+			System.out.printf("Checked %d postings and %d searches while indexing %d files with %d threads, "
+					+ "and the finished index matches the single-threaded one.%n", postings, searches, htmlFiles.length, threads);
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+
+	/**
+	 * Makes a query of every word of an index, for when no query file is given.
+	 * @param index - index to take the words of
+	 * @return list of one-word query lines
+	 */
+	private static List<List<String>> wordQueries(InvertedIndex index) {
+		List<List<String>> queries = new ArrayList<List<String>>();
+		for (String word : index.copyWords())
+			queries.add(Collections.singletonList(word));
+		return queries;
+	}
+
+	/**
+	 * Checks that the finished concurrent index has exactly the same words,
+	 * documents, positions and search results as the single-threaded one.
+	 * @param index - finished concurrent index
+	 * @param expected - index built on one thread
+	 * @param queries - query lines to search both for
+	 * @param failures - list to add whatever didn't match to
+	 */
+	private static void compare(InvertedIndex index, InvertedIndex expected, List<List<String>> queries, List<String> failures) {
+		if (!index.copyWords().equals(expected.copyWords()))
+			failures.add("The finished index has different words.");
+
+		for (String word : expected.copyWords()) {
+			PathIndex found = index.get(word);
+			PathIndex wanted = expected.get(word);
+			if (found == null || !found.copyPaths().equals(wanted.copyPaths())) {
+				failures.add("The finished index has different documents for " + word + ".");
+				continue;
+			}
+			for (String path : wanted.copyPaths()) {
+				if (!found.copyPositions(path).equals(wanted.copyPositions(path)))
+					failures.add("The finished index has different positions for " + word + " in " + path + ".");
+			}
+		}
+
+		for (List<String> query : queries) {
+			if (!describe(index.exactSearch(query)).equals(describe(expected.exactSearch(query))))
+				failures.add("Exact search for " + query + " has different results.");
+			if (!describe(index.partialSearch(query)).equals(describe(expected.partialSearch(query))))
+				failures.add("Partial search for " + query + " has different results.");
+		}
+	}
+
+	/**
+	 * Lists the path, frequency and position of every result in order, so results of different indexes compare.
+	 * @param results - search results
+	 * @return one line for every result
+	 */
+	private static List<String> describe(List<SearchResult> results) {
+		List<String> lines = new ArrayList<String>();
+		for (SearchResult result : results)
+			lines.add(result.getPath() + " " + result.getFrequency() + " " + result.getPos());
+		return lines;
+	}
+
+	/**
+	 * Keeps reading postings and searching the concurrent index until it's told
+	 * to stop, checking everything it sees against the single-threaded index.
+	 */
+	private static class ReaderTask implements Runnable {
+		private final ConcurrentInvertedIndex index;
+		private final InvertedIndex expected;
+		private final List<List<String>> queries;
+		private final List<String> words;
+		private final List<String> failures;
+		private final Random random;
+		//set once the index is done being built
+		private volatile boolean stopped;
+		//number of postings and searches checked
+		private final AtomicLong postings;
+		private final AtomicLong searches;
+
+		public ReaderTask(ConcurrentInvertedIndex index, InvertedIndex expected, List<List<String>> queries, List<String> failures, int seed) {
+			this.index = index;
+			this.expected = expected;
+			this.queries = queries;
+			this.words = expected.copyWords();
+			this.failures = failures;
+			this.random = new Random(seed);
+			this.postings = new AtomicLong();
+			this.searches = new AtomicLong();
+		}
+
+		/**
+		 * Tells the task to stop after what it's checking now.
+		 */
+		public void stop() {
+			stopped = true;
+		}
+
+		@Override
+		public void run() {
+			do {
+				checkPostings(words.get(random.nextInt(words.size())));
+				checkSearch(queries.get(random.nextInt(queries.size())), random.nextBoolean());
+			} while (!stopped && failures.size() < REPORTED);
+		}
+
+		/**
+		 * Checks that the positions of a word in every document found so far are
+		 * the start of the positions the word has in that document when it's done.
+		 * @param word - word to check
+		 */
+		private void checkPostings(String word) {
+			PathIndex found = index.get(word);
+			if (found == null)
+				return;
+
+			PathIndex wanted = expected.get(word);
+			for (int document : found.copyDocuments()) {
+				String path = index.getDocuments().getPath(document);
+				List<Integer> seen = found.copyPositions(document);
+				List<Integer> all = wanted.contains(path) ? wanted.copyPositions(path) : null;
+
+				if (all == null)
+					failures.add(word + " was found in " + path + ", which doesn't have it.");
+				else if (seen.isEmpty() || seen.size() > all.size() || !seen.equals(all.subList(0, seen.size())))
+					failures.add("Torn postings for " + word + " in " + path + ": saw " + seen + " of " + all + ".");
+				postings.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Checks that a search only finds documents the finished index finds, and
+		 * never more often or earlier than it does.
+		 * @param query - query line to search for
+		 * @param exact - whether to run an exact or partial search
+		 */
+		private void checkSearch(List<String> query, boolean exact) {
+			Map<String, SearchResult> wanted = new HashMap<String, SearchResult>();
+			for (SearchResult result : exact ? expected.exactSearch(query) : expected.partialSearch(query))
+				wanted.put(result.getPath(), result);
+
+			for (SearchResult result : exact ? index.exactSearch(query) : index.partialSearch(query)) {
+				SearchResult all = wanted.get(result.getPath());
+				if (all == null)
+					failures.add("Search for " + query + " found " + result.getPath() + ", which doesn't match.");
+				else if (result.getFrequency() > all.getFrequency() || result.getPos() < all.getPos())
+					failures.add("Search for " + query + " found " + result.getPath() + " " + result.getFrequency()
+							+ " times from " + result.getPos() + ", but it has " + all.getFrequency() + " from " + all.getPos() + ".");
+			}
+			searches.incrementAndGet();
+		}
+	}
+}
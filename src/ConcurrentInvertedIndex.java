@@ -0,0 +1,152 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * An InvertedIndex that can be searched while it is being built without any
+ * locks. Words and documents are stored in concurrent skip lists, and the
+ * positions of a document are never changed once they can be seen by a search.
+ * Instead, new positions are added to a copy that replaces the old one, so a
+ * search always reads a complete set of positions and never waits on a writer.
+ *
+ * Copying means adding one position at a time costs as much as the positions
+ * the document already has, so adding a whole document that way takes
+ * quadratic time. Whole documents should be added with
+ * {@link #addAll(String[], String, int)} or {@link #addBatch(String[], int, String, int)},
+ * which copy the positions of a word once for every batch instead.
+ *
+ * @author Robert Macaibay
+ */
+public class ConcurrentInvertedIndex extends InvertedIndex {
+
+	/**
+	 * default constructor
+	 */
+	public ConcurrentInvertedIndex() {
+		this(new DocumentTable());
+	}
+
+	/**
+	 * Creates an index that shares a table of document ids with other indexes
+	 * @param documents - table of document ids
+	 */
+	public ConcurrentInvertedIndex(DocumentTable documents) {
+		super(documents, new ConcurrentSkipListMap<>());
+	}
+
+	/**
+	 * Adds a specific word to a specific document and position without locking.
+	 * This copies every position the word already has in the document, so it's
+	 * only meant for small updates.
+	 * @param word - word found
+	 * @param document - id of the html/htm file
+	 * @param pos - position of word in that file
+	 */
+	@Override
+	protected void add(String word, int document, int pos) {
+		getOrCreate(word).add(document, pos);
+	}
+
+	/**
+	 * Adds the array of words at once, assuming the first word in the array is
+	 * at the provided starting position. The whole document is built privately
+	 * first and then published one word at a time.
+	 *
+	 * @param words - array of words to add
+	 * @param path - path to html/htm file
+	 * @param start - starting position
+	 */
+	@Override
+	public void addAll(String[] words, String path, int start) {
+		InvertedIndex local = new InvertedIndex(documents);
+		local.addAll(words, path, start);
+		addAll(local);
+	}
+
+	/**
+	 * Adds the next batch of words of a document. Every batch is built privately
+	 * first and then published one word at a time, so searches can see the
+	 * document before its last batch is added.
+	 *
+	 * @param words - array holding the batch
+	 * @param count - number of words in the batch, starting at the beginning of the array
+	 * @param path - path to html/htm file
+	 * @param offset - number of words of the document added before this batch
+	 */
+	@Override
+	public void addBatch(String[] words, int count, String path, int offset) {
+		InvertedIndex local = new InvertedIndex(documents);
+		local.addBatch(words, count, path, offset);
+		addAll(local);
+	}
+
+	/**
+	 * Merges every word of another index into this one without locking. The
+	 * other index shouldn't be used afterwards since its positions are moved
+	 * rather than copied.
+	 *
+	 * @param other - index to merge into this one
+	 */
+	@Override
+	public void addAll(InvertedIndex other) {
+		//document ids only mean the same thing if the table is the same
+		if (other.documents != documents)
+			throw new IllegalArgumentException("Indexes must share the same document table to be merged.");
+
+		for (Map.Entry<String, PathIndex> entry : other.postings().entrySet())
+			getOrCreate(entry.getKey()).addAll(entry.getValue());
+		cache.invalidate();
+	}
+
+	/**
+	 * Gets the path index of a word, creating it if it isn't there yet.
+	 * @param word - word to look for
+	 * @return path index of that word
+	 */
+	private PathIndex getOrCreate(String word) {
+		PathIndex pi = index.get(word);
+		if (pi == null)
+			pi = index.computeIfAbsent(word, w -> new ConcurrentPathIndex(documents));
+		return pi;
+	}
+
+	/**
+	 * A PathIndex whose positions are replaced instead of changed, so they can
+	 * be read without locking while other threads add to them.
+	 */
+	private static class ConcurrentPathIndex extends PathIndex {
+
+		public ConcurrentPathIndex(DocumentTable documents) {
+			super(documents, new ConcurrentSkipListMap<>());
+		}
+
+		/**
+		 * Adds one position, copying every position the document already has.
+		 * Adding many positions this way takes quadratic time, so use
+		 * {@link #addAll(PathIndex)} with a private path index for more than a few.
+		 */
+		@Override
+		public void add(int document, int position) {
+			//copy the positions, add to the copy, and swap it in
+			index.compute(documents.key(document), (key, old) -> {
+				PositionList positions = old == null ? new PositionList() : new PositionList(old);
+				positions.add(position);
+				return positions;
+			});
+			changed();
+		}
+
+		@Override
+		public void addAll(PathIndex other) {
+			for (Map.Entry<Integer, PositionList> entry : other.index.entrySet()) {
+				//the other positions aren't shared yet, so they can be published as they are
+				index.merge(entry.getKey(), entry.getValue(), (old, added) -> {
+					PositionList positions = new PositionList(old);
+					for (int pos : added.toArray())
+						positions.add(pos);
+					return positions;
+				});
+			}
+			changed();
+		}
+	}
+}
@@ -0,0 +1,209 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns every path or url added to an index a dense integer id, so the
+ * postings only have to store that id instead of the full String.
+ *
+ * @author Robert Macaibay
+ */
+public class DocumentTable {
+
+	/**
+	 * Stores a mapping of paths to their ids.
+	 */
+	private final ConcurrentHashMap<String, Integer> ids;
+
+	/**
+	 * Stores the paths by their id. Reassigned on every add so readers always see the newest paths.
+	 */
+	private volatile String[] paths;
+
+	/**
+	 * Stores one boxed copy of every id, so maps keyed by id don't each box their own.
+	 */
+	private volatile Integer[] keys;
+
+	/**
+	 * Stores the number of words in every document by its id. Reassigned whenever it grows.
+	 */
+	private volatile int[] lengths;
+
+	//number of ids handed out so far
+	private int size;
+
+	//number of words in every document added together
+	private long totalLength;
+
+	//BM25 length norms from the last time they were asked for, and what they were worked out from
+	private float[] norms;
+	private float normK1;
+	private float normB;
+	private long normTotal;
+
+	/**
+	 * Initializes an empty table.
+	 */
+	public DocumentTable() {
+		ids = new ConcurrentHashMap<>();
+		paths = new String[16];
+		keys = new Integer[16];
+		lengths = new int[16];
+		size = 0;
+		totalLength = 0;
+	}
+
+	/**
+	 * Gets the id of a path, assigning the next id if the path has not been seen before.
+	 * @param path - path or url of the document
+	 * @return id of the document
+	 */
+	public int add(String path) {
+		//most calls are for paths we already know about, so try without locking first
+		Integer id = ids.get(path);
+		if (id != null)
+			return id;
+
+		synchronized (this) {
+			//another thread might have added it while we were waiting
+			id = ids.get(path);
+			if (id != null)
+				return id;
+
+			//make room for the new path if we need to
+			String[] pathCopy = paths;
+			Integer[] keyCopy = keys;
+			if (size == pathCopy.length) {
+				pathCopy = Arrays.copyOf(pathCopy, size * 2);
+				keyCopy = Arrays.copyOf(keyCopy, size * 2);
+				lengths = Arrays.copyOf(lengths, size * 2);
+			}
+
+			//store the path and publish the arrays before anyone can see the id
+			id = size;
+			pathCopy[size] = path;
+			keyCopy[size] = id;
+			paths = pathCopy;
+			keys = keyCopy;
+			ids.put(path, id);
+			return size++;
+		}
+	}
+
+	/**
+	 * Gets the id of a path without assigning one.
+	 * @param path - path or url of the document
+	 * @return id of the document or -1 if it was never added
+	 */
+	public int get(String path) {
+		Integer id = ids.get(path);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Gets the path or url for an id.
+	 * @param id - id of the document
+	 * @return path of the document
+	 */
+	public String getPath(int id) {
+		return paths[id];
+	}
+
+	/**
+	 * Gets the shared boxed copy of an id, used as the key for maps of documents.
+	 * @param id - id of the document
+	 * @return boxed id
+	 */
+	public Integer key(int id) {
+		return keys[id];
+	}
+
+	/**
+	 * Records that a document has at least the given number of words. Words
+	 * are numbered from 1, so the highest position added is the length.
+	 * @param id - id of the document
+	 * @param length - number of words seen in the document so far
+	 */
+	public void updateLength(int id, int length) {
+		//most words don't make a document longer, so check without locking first
+		if (length <= lengths[id])
+			return;
+
+		synchronized (this) {
+			int[] copy = lengths;
+			if (length > copy[id]) {
+				totalLength += length - copy[id];
+				copy[id] = length;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of words in a document.
+	 * @param id - id of the document
+	 * @return number of words in that document
+	 */
+	public int length(int id) {
+		return lengths[id];
+	}
+
+	/**
+	 * Gets the average number of words in a document.
+	 * @return average document length, or 0 if there are no documents
+	 */
+	public synchronized double averageLength() {
+		return size == 0 ? 0 : (double) totalLength / size;
+	}
+
+	/**
+	 * Gets the length part of a BM25 score for every document, which is
+	 * k1 * (1 - b + b * length / average length). They only change when
+	 * documents are added, so they are worked out once and reused until then.
+	 * @param k1 - BM25 k1 parameter
+	 * @param b - BM25 b parameter
+	 * @return norm of every document by its id
+	 */
+	public synchronized float[] norms(float k1, float b) {
+		if (norms != null && norms.length == size && normTotal == totalLength && normK1 == k1 && normB == b)
+			return norms;
+
+		double average = averageLength();
+		float[] computed = new float[size];
+		for (int i = 0; i < size; i++)
+			computed[i] = (float) (k1 * (1 - b + (average == 0 ? 0 : b * lengths[i] / average)));
+
+		norms = computed;
+		normK1 = k1;
+		normB = b;
+		normTotal = totalLength;
+		return computed;
+	}
+
+	/**
+	 * Returns the number of documents stored in the table.
+	 * @return number of documents
+	 */
+	public int size() {
+		return ids.size();
+	}
+
+	/**
+	 * Compares two documents by their paths, which is the order all output is written in.
+	 * @param first - id of the first document
+	 * @param second - id of the second document
+	 * @return negative, zero or positive like {@link String#compareTo(String)}
+	 */
+	public int compare(int first, int second) {
+		if (first == second)
+			return 0;
+		return getPath(first).compareTo(getPath(second));
+	}
+
+	/**
+	 * Returns a string representation of this table.
+	 */
+	@Override
+	public String toString() {
+		return ids.toString();
+	}
+}
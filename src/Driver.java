@@ -1,4 +1,5 @@
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -8,6 +9,7 @@ import java.util.Arrays;
 import java.util.InputMismatchException;
 import java.util.List;
 import java.util.TreeMap;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
 /**
@@ -48,9 +50,25 @@ public class Driver {
 			boolean usesPath = am.hasFlag("-path");
 			//determines whether or not we're reading from a url
 			boolean usesUrl = am.hasFlag("-url");
+			//determines whether or not we're writing or searching an index segment file
+			boolean usesSegment = am.hasValue("-segment");
+			//segment to search if we aren't building an index
+			IndexSegment segment = null;
+			//determines whether or not we're searching shard servers instead of our own index
+			boolean usesNodes = am.hasValue("-nodes");
+			
+			//determines whether or not the query lines are phrases
+			boolean doPhrase = am.hasFlag("-phrase");
+			//determines whether or not results need every word of the query line
+			boolean doAnd = am.hasFlag("-and");
+			//determines whether or not results are ranked by BM25 instead of frequency
+			boolean doRanked = am.hasFlag("-bm25");
+			
+			//determines whether or not we're loading a saved index snapshot
+			boolean usesLoad = am.hasValue("-load");
 			
 			//check if our user wants threads
-			if (isThreaded && usesPath) {
+			if (isThreaded) {
 				//parse the flag value from the ArgumentMap for number of threads
 				try {
 					threads = Integer.parseInt(am.getString("-threads"));
@@ -61,29 +79,44 @@ public class Driver {
 				//if the threads turn out to be less than 1, default that to 5
 				if (threads < 1)
 					threads = new Integer(5);
-				
+			}
+			
+			//check if our user wants threads
+			if (isThreaded && usesPath) {
 				//create a new work queue with that number of threads
 				queue = new WorkQueue(threads);
 				//also recreate our index into a NEW thread-safe inverted index
-				index = new ThreadSafeInvertedIndex();
-				//now we want to iterate through all the html/htm files and have our queue execute an inverted index build task
-				HTMLFinder.findHtmlThreaded(am.getString("-path"), queue, index);
-				//wait until the queue finishes
-				queue.finish();
+				index = newThreadedIndex(am, queue);
+				//split the threads between the stages of a pipeline, unless the user picked how many each stage gets
+				IndexPipeline pipeline = new IndexPipeline(index, stageThreads(am, threads));
+				//now we want to iterate through all the html/htm files and add each one to the pipeline as we find it
+				HTMLFinder.findHtmlThreaded(am.getString("-path"), pipeline);
+				//wait until the pipeline finishes
+				pipeline.finish();
+				pipeline.shutdown();
+				//show which stage held up the rest if asked to
+				if (am.hasFlag("-stats"))
+					System.out.print(pipeline.getStats());
+				//each inserter may have built its own private index, so merge them all in
+				InvertedIndexBuilder.mergePartials(index, queue);
 			} else if (usesPath) {
+				//split the index into shards even without threads if asked to
+				if (am.hasFlag("-shards"))
+					index = new ShardedIndex(shardCount(am), null);
 				//find all html/htm files designated by our path argument and also check any sub-directories.
 				Path[] htmlFiles = HTMLFinder.findHtml(am.getString("-path"));
 				
-				//if not, build the index serially
+				//if not, build the index serially, running one pipeline on this thread so every file shares its words
+				IndexPipeline pipeline = new IndexPipeline(index);
 				for (Path html : htmlFiles)
-					InvertedIndexBuilder.buildIndex(html, index);
+					pipeline.add(html);
 			} else if (usesUrl) {
 				//create URL object
 				URL url = new URL(am.getString("-url"));
 				//create work queue
 				queue = new WorkQueue();
 				//create a thread safe inverted index
-				index = new ThreadSafeInvertedIndex();
+				index = newThreadedIndex(am, queue);
 				//max amount of crawls
 				Integer max = null;
 				//check if user specified a limit
@@ -92,17 +125,31 @@ public class Driver {
 				} catch (NumberFormatException e) {
 					max = new Integer(50);
 				}
-				//get a preset size of max for an arraylist
-				ArrayList<URL> links = new ArrayList<URL>(max);
-				//parse for links
-				queue.execute(new LinkParser.LinkParseTask(links, queue, url, url, max));
-				queue.finish();
-				//build index off those links
-				for (URL u : links)
-					queue.execute(new InvertedIndexBuilder.LinkBuildTask(index, u));
-				queue.finish();
+				//crawl for links and build our index off of them, splitting the queue's threads between the stages unless the user picked
+				IndexPipeline pipeline = InvertedIndexBuilder.buildIndex(url, max, queue, index, stageThreads(am, queue.size()));
+				//show which stage held up the rest if asked to
+				if (am.hasFlag("-stats"))
+					System.out.print(pipeline.getStats());
 				queue.shutdown();
+			} else if (usesLoad) {
+				//searching with threads needs a queue and a thread-safe index
+				if (isThreaded) {
+					queue = new WorkQueue(threads);
+					index = newThreadedIndex(am, queue);
+				}
+				//load the index saved earlier instead of building it again
+				IndexSnapshot.load(Paths.get(am.getString("-load")), index);
 			}
+			
+			//save the index so it can be loaded next time
+			if (am.hasValue("-save"))
+				IndexSnapshot.save(index, Paths.get(am.getString("-save")));
+
+			//write the index we built into a segment file, or open the segment if we didn't build anything
+			if (usesSegment && (usesPath || usesUrl || usesLoad))
+				writeSegments(index, am.getString("-segment"));
+			else if (usesSegment && !usesNodes)
+				segment = IndexSegment.open(Paths.get(am.getString("-segment")));
 
 			//checks if there's an "-index" flag, if so, write our inverted index results to a JSON file
 			if (am.hasFlag("-index") && !am.hasFlag("-servlet"))
@@ -115,7 +162,7 @@ public class Driver {
 			//check if there's a query flag
 			if (wantsQuery) {
 				if (am.hasFlag("-query"))
-					queries = QueryReader.getQueries(am.getString("-query"));
+					queries = QueryReader.getQueries(am.getString("-query"), !doPhrase);
 				else {
 					List<String> line = Arrays.asList(am.getString("-queryLine").split(" "));
 					queries = new ArrayList<List<String>>();
@@ -127,17 +174,48 @@ public class Driver {
 			TreeMap<String, List<SearchResult>> map = new TreeMap<String, List<SearchResult>>();
 
 			//query searching!
-			if (isThreaded && wantsQuery && threads >= 1) {
+			if (usesNodes) {
+				//search every shard server at once and merge what they send back
+				if (wantsQuery && (doPhrase || doAnd || doRanked))
+					throw new InputMismatchException("Phrase, conjunctive and ranked search aren't supported on shard servers.");
+				if (wantsQuery) {
+					try (SearchCoordinator coordinator = new SearchCoordinator(parseNodes(am.getString("-nodes")))) {
+						querySearch(am.hasFlag("-exact"), map, coordinator, queries);
+					}
+				}
+			} else if (segment != null) {
+				//search the segment file serially
+				if (wantsQuery && (doPhrase || doAnd || doRanked))
+					throw new InputMismatchException("Phrase, conjunctive and ranked search aren't supported on segment files.");
+				if (wantsQuery)
+					querySearch(am.hasFlag("-exact"), map, segment, queries);
+				segment.close();
+			} else if (isThreaded && wantsQuery && threads >= 1) {
 				//search with threads
-				querySearchWithThreads(am.hasFlag("-exact"), map, index, queries, queue);
+				boolean doExact = am.hasFlag("-exact");
+				if (doPhrase)
+					searchWithThreads(map, index, queries, queue, InvertedIndex::phraseSearch);
+				else if (doAnd)
+					searchWithThreads(map, index, queries, queue, InvertedIndex::conjunctiveSearch);
+				else if (doRanked)
+					searchWithThreads(map, index, queries, queue, (searching, lineQueries) -> searching.rankedSearch(lineQueries, !doExact));
+				else
+					searchWithThreads(map, index, queries, queue, doExact ? InvertedIndex::exactSearch : InvertedIndex::partialSearch);
 				//wait until the queue is finished
 				queue.finish();
 			} else if (wantsQuery) {
 				//search serially
-				querySearch(am.hasFlag("-exact"), map, index, queries);
+				if (doPhrase)
+					phraseSearch(map, index, queries);
+				else if (doAnd)
+					conjunctiveSearch(map, index, queries);
+				else if (doRanked)
+					rankedSearch(am.hasFlag("-exact"), map, index, queries);
+				else
+					querySearch(am.hasFlag("-exact"), map, index, queries);
 			}
 			
-			if (isThreaded)
+			if (queue != null)
 				queue.shutdown(); //shutdown the queue because we don't need it
 			
 			if (am.hasFlag("-servlet"))
@@ -153,6 +231,61 @@ public class Driver {
 		}
 	}
 
+	/**
+	 * Creates the index shared by our threads. "-shards" splits it into shards that
+	 * each have their own lock, and "-concurrent" picks the lock-free index
+	 * instead of the one guarded by a single lock.
+	 * @param am - ArgumentMap which holds our flag arguments
+	 * @param queue - WorkQueue object the shards are searched on
+	 * @return new, empty index that is safe to use from multiple threads
+	 */
+	private static InvertedIndex newThreadedIndex(ArgumentMap am, WorkQueue queue) {
+		if (am.hasFlag("-shards"))
+			return new ShardedIndex(shardCount(am), queue);
+		if (am.hasFlag("-concurrent"))
+			return new ConcurrentInvertedIndex();
+		return new ThreadSafeInvertedIndex();
+	}
+	
+	/**
+	 * Parses the number of shards, defaulting to 4 if it's missing or less than 1
+	 * @param am - ArgumentMap which holds our flag arguments
+	 * @return number of shards
+	 */
+	private static int shardCount(ArgumentMap am) {
+		int shards;
+		try {
+			shards = Integer.parseInt(am.getString("-shards"));
+		} catch (NumberFormatException e) {
+			shards = 4;
+		}
+		return shards < 1 ? 4 : shards;
+	}
+	
+	/**
+	 * Parses how many threads each stage of the pipeline gets from "-stages", like
+	 * "1,2,2,1" for fetch, extract, tokenize and insert. The threads are split
+	 * between the stages instead if it's missing or not four numbers of at least 1.
+	 * @param am - ArgumentMap which holds our flag arguments
+	 * @param threads - number of threads to split otherwise
+	 * @return number of threads for every stage
+	 */
+	private static int[] stageThreads(ArgumentMap am, int threads) {
+		if (am.hasValue("-stages")) {
+			String[] counts = am.getString("-stages").split(",");
+			try {
+				int[] stages = new int[counts.length];
+				for (int i = 0; i < counts.length; i++)
+					stages[i] = Integer.parseInt(counts[i].trim());
+				if (stages.length == 4 && Arrays.stream(stages).allMatch(count -> count > 0))
+					return stages;
+			} catch (NumberFormatException e) {
+				//fall through and split them ourselves
+			}
+		}
+		return IndexPipeline.split(threads);
+	}
+	
 	/**
 	 * Checks if the flag arguments have correct/created corresponding files
 	 * @param am - ArgumentMap which holds our flag arguments and the corresponding file paths
@@ -181,6 +314,16 @@ public class Driver {
 				throw new InputMismatchException("There is no specified path.");
 			if (am.hasValue("-path") && !Files.exists(Paths.get(am.getString("-path"))))
 				throw new InputMismatchException("Path specified isn't correct because (one or more of the following):\n1. Does not exist\n2. Is not a file or directory");
+		} else if (am.hasValue("-load") && !am.hasFlag("-url")) {
+			//without a path or url we load a saved snapshot, so it has to exist
+			if (!Files.isRegularFile(Paths.get(am.getString("-load"))))
+				throw new InputMismatchException("Snapshot specified isn't correct because it does not exist or is not a file.");
+		} else if (am.hasValue("-nodes") && !am.hasFlag("-url")) {
+			//shard servers hold the index, so there's nothing local to check
+		} else if (am.hasValue("-segment") && !am.hasFlag("-url")) {
+			//without a path or url we search an existing segment, so it has to exist
+			if (!Files.isRegularFile(Paths.get(am.getString("-segment"))))
+				throw new InputMismatchException("Segment specified isn't correct because it does not exist or is not a file.");
 		} else if (!am.hasFlag("-url")) {
 			//throw an exception because we WANT a path flag
 			throw new InputMismatchException("There is no specified path.");
@@ -226,27 +369,137 @@ public class Driver {
 	}
 	
 	/**
-	 * Searches through an index for any list of queries provided and saves it into a map of search results but does it efficiently ;)
+	 * Searches through an index for every query line as a phrase and saves it into a map of search results
+	 * @param map - map of strings which are the query lines and the search results from those lines
+	 * @param index - InvertedIndex which holds a map of particular words and their locations in files
+	 * @param queries - a list of query lines which are further divided into a list of individual words, in order
+	 */
+	private static void phraseSearch(TreeMap<String, List<SearchResult>> map, InvertedIndex index, List<List<String>> queries) {
+		//iterate through the line queries found
+		for (List<String> lineQueries : queries) {
+			//get the entire line
+			String word = lineQueries.stream().collect(Collectors.joining(" "));
+			//put the tostring output and the phrase search results
+			map.put(word, index.phraseSearch(lineQueries));
+		}
+	}
+	
+	/**
+	 * Searches through an index for the documents that have every word of each query line and saves it into a map of search results
+	 * @param map - map of strings which are the query lines and the search results from those lines
+	 * @param index - InvertedIndex which holds a map of particular words and their locations in files
+	 * @param queries - a list of query lines which are further divided into a list of individual words
+	 */
+	private static void conjunctiveSearch(TreeMap<String, List<SearchResult>> map, InvertedIndex index, List<List<String>> queries) {
+		//iterate through the line queries found
+		for (List<String> lineQueries : queries) {
+			//get the entire line
+			String word = lineQueries.stream().collect(Collectors.joining(" "));
+			//put the tostring output and the conjunctive search results
+			map.put(word, index.conjunctiveSearch(lineQueries));
+		}
+	}
+	
+	/**
+	 * Searches through an index for any list of queries provided, ranks the results by BM25 and saves it into a map of search results
+	 * @param doExact - determines whether or not we're doing a partial or exact search
+	 * @param map - map of strings which are the query lines and the search results from those lines
+	 * @param index - InvertedIndex which holds a map of particular words and their locations in files
+	 * @param queries - a list of query lines which are further divided into a list of individual words
+	 */
+	private static void rankedSearch(boolean doExact, TreeMap<String, List<SearchResult>> map, InvertedIndex index, List<List<String>> queries) {
+		//iterate through the line queries found
+		for (List<String> lineQueries : queries) {
+			//get the entire line
+			String word = lineQueries.stream().collect(Collectors.joining(" "));
+			//put the tostring output and the ranked search results
+			map.put(word, index.rankedSearch(lineQueries, !doExact));
+		}
+	}
+	
+	/**
+	 * Searches through a segment file for any list of queries provided and saves it into a map of search results
 	 * @param doExact - determines whether or not we're doing a partial or exact search
 	 * @param map - map of strings which are the query lines and the search results from those lines
+	 * @param segment - IndexSegment which was written from an InvertedIndex earlier
+	 * @param queries - a list of query lines which are further divided into a list of individual words
+	 */
+	private static void querySearch(boolean doExact, TreeMap<String, List<SearchResult>> map, IndexSegment segment, List<List<String>> queries) {
+		//iterate through the line queries found
+		for (List<String> lineQueries : queries) {
+			//get the entire line
+			String word = lineQueries.stream().collect(Collectors.joining(" "));
+			//put the tostring output and the search results
+			map.put(word, doExact ? segment.exactSearch(lineQueries) : segment.partialSearch(lineQueries));
+		}
+	}
+	
+	/**
+	 * Searches through every shard server for any list of queries provided and saves it into a map of search results
+	 * @param doExact - determines whether or not we're doing a partial or exact search
+	 * @param map - map of strings which are the query lines and the search results from those lines
+	 * @param coordinator - SearchCoordinator connected to every shard server
+	 * @param queries - a list of query lines which are further divided into a list of individual words
+	 * @throws IOException - if a shard server can't be searched
+	 */
+	private static void querySearch(boolean doExact, TreeMap<String, List<SearchResult>> map, SearchCoordinator coordinator, List<List<String>> queries) throws IOException {
+		//iterate through the line queries found
+		for (List<String> lineQueries : queries) {
+			//get the entire line
+			String word = lineQueries.stream().collect(Collectors.joining(" "));
+			//put the tostring output and the search results
+			map.put(word, doExact ? coordinator.exactSearch(lineQueries) : coordinator.partialSearch(lineQueries));
+		}
+	}
+	
+	/**
+	 * Writes an index into a segment file. A sharded index writes every shard into
+	 * its own segment instead, named after the path with the shard number added on,
+	 * so each one can be served by its own {@link ShardServer}.
+	 * @param index - index to write
+	 * @param path - path to the segment file
+	 * @throws IOException - if a segment can't be written
+	 */
+	private static void writeSegments(InvertedIndex index, String path) throws IOException {
+		if (index instanceof ShardedIndex) {
+			ShardedIndex sharded = (ShardedIndex) index;
+			for (int i = 0; i < sharded.shards(); i++)
+				IndexSegment.write(sharded.getShard(i), Paths.get(path + "." + i));
+		} else {
+			IndexSegment.write(index, Paths.get(path));
+		}
+	}
+	
+	/**
+	 * Parses the addresses of the shard servers
+	 * @param nodes - comma separated host:port pairs
+	 * @return address of every shard server
+	 */
+	private static List<InetSocketAddress> parseNodes(String nodes) {
+		try {
+			return SearchCoordinator.parse(nodes);
+		} catch (IllegalArgumentException e) {
+			throw new InputMismatchException("Shard servers have to be given as host:port pairs.");
+		}
+	}
+	
+	/**
+	 * Searches through an index for every query line using threads and saves it into a map of search results
+	 * @param map - map of strings which are the query lines and the search results from those lines
 	 * @param index - InvertedIndex which holds a map of particular words and their locations in files
 	 * @param queries - a list of query lines which are further divided into a list of individual words
 	 * @param queue - WorkQueue object which executes thread tasks
+	 * @param search - search to run for a query line, like exact, partial, phrase, conjunctive or ranked search
 	 */
-	private static void querySearchWithThreads(boolean doExact, TreeMap<String, List<SearchResult>> map, InvertedIndex index, List<List<String>> queries, WorkQueue queue) {
-		//this is for partial search
-		if (doExact) {
-			//iterate through the line queries found
-			for (List<String> lineQueries : queries) {
-				//have the work queue execute the search task which will update our map by reference
-				queue.execute(new ThreadSafeInvertedIndex.ExactSearchTask(index, map, lineQueries));
-			}
-		} else { //this is for exact search
-			//iterate through the line queries found
-			for (List<String> lineQueries : queries) {
-				//have the work queue execute the search task which will update our map by reference
-				queue.execute(new ThreadSafeInvertedIndex.PartialSearchTask(index, map, lineQueries));
-			}
+	private static void searchWithThreads(TreeMap<String, List<SearchResult>> map, InvertedIndex index, List<List<String>> queries, WorkQueue queue,
+			BiFunction<InvertedIndex, List<String>, List<SearchResult>> search) {
+		//the index is done being built, so freeze it, publish it and let the tasks search it without locking
+		VersionedIndex versions = new VersionedIndex(index.freeze());
+		
+		//iterate through the line queries found
+		for (List<String> lineQueries : queries) {
+			//have the work queue execute the search task which will update our map by reference
+			queue.execute(new ThreadSafeInvertedIndex.SearchTask(versions, map, lineQueries, searching -> search.apply(searching, lineQueries)));
 		}
 	}
 }
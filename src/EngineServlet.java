@@ -1,14 +1,24 @@
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -31,8 +41,19 @@ public class EngineServlet extends HttpServlet {
 	private static final String TITLE = "Project 4";
 	private static Logger log = Log.getRootLogger();
 	public static final int PORT = 8080;
+	private static final int CRAWL_LIMIT = 50;
+	private static final int RESULT_LIMIT = 25;
+	//minutes between rounds of recrawling
+	private static final int RECRAWL_MINUTES = 10;
 	private ServletHandler handler;
 	private TreeMap<String, RefreshValue> refresh;
+	private ConcurrentHashMap<String, VersionedIndex> crawls;
+	//urls searched since the last round of recrawling
+	private Set<String> searched;
+	//threads every crawl runs on, used by one crawl at a time
+	private WorkQueue crawler;
+	//runs every round of recrawling, one after another
+	private ScheduledExecutorService recrawler;
 
 	private ConcurrentLinkedQueue<String> queries;
 
@@ -41,6 +62,10 @@ public class EngineServlet extends HttpServlet {
 		this.queries = new ConcurrentLinkedQueue<>();
 		this.handler = null;
 		this.refresh = new TreeMap<>();
+		this.crawls = new ConcurrentHashMap<>();
+		this.searched = ConcurrentHashMap.newKeySet();
+		this.crawler = new WorkQueue();
+		this.recrawler = startRecrawler();
 	}
 	
 	public EngineServlet(ServletHandler handler) {
@@ -48,6 +73,10 @@ public class EngineServlet extends HttpServlet {
 		this.queries = new ConcurrentLinkedQueue<>();
 		this.handler = handler;
 		this.refresh = new TreeMap<>();
+		this.crawls = new ConcurrentHashMap<>();
+		this.searched = ConcurrentHashMap.newKeySet();
+		this.crawler = new WorkQueue();
+		this.recrawler = startRecrawler();
 	}
 
 	@Override
@@ -107,6 +136,9 @@ public class EngineServlet extends HttpServlet {
 			String query = request.getParameter("query");
 			String url = request.getParameter("url");
 			boolean partialSearch = false;
+			boolean phraseSearch = false;
+			boolean andSearch = false;
+			boolean rankedSearch = false;
 			boolean privateSearch = false;
 			String[] buttons = request.getParameterValues("search");
 			
@@ -114,6 +146,12 @@ public class EngineServlet extends HttpServlet {
 				for (String b : buttons)
 					if (b.equals("partial"))
 						partialSearch = true;
+					else if (b.equals("phrase"))
+						phraseSearch = true;
+					else if (b.equals("and"))
+						andSearch = true;
+					else if (b.equals("ranked"))
+						rankedSearch = true;
 					else if (b.equals("private"))
 						privateSearch = true;
 			
@@ -135,13 +173,24 @@ public class EngineServlet extends HttpServlet {
 			Files.deleteIfExists(output);
 			Files.createDirectories(output.getParent());
 
-			if (partialSearch) {
-				String[] args = {"-url", url, "-queryLine", query, "-index", output.toString(), "-limit", "-servlet"};
-				Driver.main(args);
-			} else {
-				String[] args = {"-url", url, "-queryLine", query, "-index", output.toString(), "-limit", "-servlet", "-exact"};
-				Driver.main(args);
-			}
+			//pin the current generation of this url's index so a recrawl can't change it under us
+			InvertedIndex snapshot = getCrawl(url).pin();
+			List<String> lineQueries = Arrays.asList(query.split(" "));
+			TreeMap<String, List<SearchResult>> map = new TreeMap<>();
+			
+			if (phraseSearch)
+				map.put(String.join(" ", lineQueries), snapshot.phraseSearch(lineQueries, RESULT_LIMIT));
+			else if (rankedSearch)
+				map.put(String.join(" ", lineQueries), snapshot.rankedSearch(lineQueries, partialSearch, RESULT_LIMIT));
+			else if (andSearch)
+				map.put(String.join(" ", lineQueries), snapshot.conjunctiveSearch(lineQueries, RESULT_LIMIT));
+			else if (partialSearch) {
+				map.put(String.join(" ", lineQueries), snapshot.partialSearch(lineQueries, RESULT_LIMIT));
+				log.info(String.format("Prefix cache hit rate for %s: %.1f%%", url, snapshot.getPrefixCache().getHitRate() * 100));
+			} else
+				map.put(String.join(" ", lineQueries), snapshot.exactSearch(lineQueries, RESULT_LIMIT));
+			
+			ServletWriter.writeResults(map, output.toString());
 
 			StringBuilder results = new StringBuilder();
 
@@ -189,6 +238,91 @@ public class EngineServlet extends HttpServlet {
 		response.sendRedirect(request.getServletPath());
 	}
 
+	/**
+	 * Gets the published index of a url. The first search for a url waits for it
+	 * to be crawled; every later search gets the current generation right away.
+	 * Every url searched is recrawled in the next round of recrawling, and the
+	 * new generation is published once it's done.
+	 * @param url - url to search
+	 * @return published generations of that url's index
+	 * @throws MalformedURLException - if the url can't be crawled
+	 */
+	private VersionedIndex getCrawl(String url) throws MalformedURLException {
+		VersionedIndex versions = crawls.computeIfAbsent(url, u -> new VersionedIndex());
+		
+		synchronized (versions) {
+			if (versions.pin() == null)
+				versions.publish(crawl(url));
+		}
+		
+		searched.add(url);
+		return versions;
+	}
+	
+	/**
+	 * Starts the thread that recrawls every url searched since the last round,
+	 * once every few minutes. A round only starts once the last one is done.
+	 * @return scheduler running the rounds
+	 */
+	private ScheduledExecutorService startRecrawler() {
+		ScheduledExecutorService recrawler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "recrawler");
+			//don't keep the server running just to recrawl
+			thread.setDaemon(true);
+			return thread;
+		});
+		recrawler.scheduleWithFixedDelay(this::recrawl, RECRAWL_MINUTES, RECRAWL_MINUTES, TimeUnit.MINUTES);
+		return recrawler;
+	}
+	
+	/**
+	 * Recrawls every url searched since the last round, one at a time, and
+	 * publishes each new generation once it's done.
+	 */
+	private void recrawl() {
+		Iterator<String> urls = searched.iterator();
+		while (urls.hasNext()) {
+			String url = urls.next();
+			urls.remove();
+			
+			VersionedIndex versions = crawls.get(url);
+			try {
+				versions.publish(crawl(url));
+				log.info("Published generation " + versions.getVersion() + " of " + url);
+			} catch (MalformedURLException | RuntimeException e) {
+				//a failure would cancel every round after this one
+				log.warn(e);
+			}
+		}
+	}
+	
+	/**
+	 * Crawls a url into a brand new index, waiting for any other crawl to finish
+	 * first since they all share the same work queue.
+	 * @param url - url to crawl
+	 * @return fully built index
+	 * @throws MalformedURLException - if the url can't be crawled
+	 */
+	private InvertedIndex crawl(String url) throws MalformedURLException {
+		URL seed = new URL(url);
+		synchronized (crawler) {
+			InvertedIndex index = new ThreadSafeInvertedIndex();
+			InvertedIndexBuilder.buildIndex(seed, CRAWL_LIMIT, crawler, index);
+			//generations are never added to once published, so freeze them into the smaller dictionary
+			return index.freeze();
+		}
+	}
+	
+	/**
+	 * Stops recrawling and the threads crawls run on.
+	 */
+	@Override
+	public void destroy() {
+		recrawler.shutdownNow();
+		crawler.shutdown();
+		super.destroy();
+	}
+
 	private static void printForm(HttpServletRequest request, HttpServletResponse response) throws IOException {
 
 		String tab = "&nbsp;&nbsp;&nbsp;&nbsp;";
@@ -217,6 +351,9 @@ public class EngineServlet extends HttpServlet {
 		out.printf("<p><input type=\"submit\" name=\"action\" value=\"Search\">");
 		out.printf(tab + "<input type=\"submit\" name=\"action\" value=\"Clear History\">");
 		out.printf(tab + "<input type=\"checkbox\" name=\"search\" value=\"partial\">Partial Search?");
+		out.printf(tab + "<input type=\"checkbox\" name=\"search\" value=\"phrase\">Phrase Search?");
+		out.printf(tab + "<input type=\"checkbox\" name=\"search\" value=\"and\">All Words?");
+		out.printf(tab + "<input type=\"checkbox\" name=\"search\" value=\"ranked\">Rank by Relevance?");
 		out.printf(tab + "<input type=\"checkbox\" name=\"search\" value=\"private\">Private Search?");
 		out.printf("</p>\n%n");
 		out.printf("</form>\n%n");
@@ -0,0 +1,139 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A read-only {@link InvertedIndex} whose words live in a {@link TermDictionary}
+ * instead of a sorted map. Every word is found by its ordinal, and the path
+ * indexes are kept in an array in the same order, so a prefix is a range of
+ * the array instead of a walk through map entries.
+ *
+ * Frozen indexes are made with {@link InvertedIndex#freeze()} once an index is
+ * done being built, which is what a published generation of a
+ * {@link VersionedIndex} should be.
+ *
+ * @author Robert Macaibay
+ */
+public class FrozenInvertedIndex extends InvertedIndex {
+	//every word in sorted order
+	private final TermDictionary words;
+	//path index of every word, by ordinal
+	private final PathIndex[] postings;
+
+	/**
+	 * Freezes a map of words to path indexes. The path indexes are shared, not copied.
+	 * @param documents - table of document ids
+	 * @param index - sorted map of words to freeze
+	 */
+	public FrozenInvertedIndex(DocumentTable documents, Map<String, PathIndex> index) {
+		//an empty map that can't be changed, so nothing can sneak words in around the dictionary
+		super(documents, Collections.unmodifiableNavigableMap(new TreeMap<>()));
+		this.words = new TermDictionary(index.keySet());
+		this.postings = index.values().toArray(new PathIndex[words.size()]);
+	}
+
+	/**
+	 * Frozen indexes can't be added to.
+	 * @throws UnsupportedOperationException - always
+	 */
+	@Override
+	public void add(String word, String path, int pos) {
+		throw new UnsupportedOperationException("A frozen index can't be added to.");
+	}
+
+	/**
+	 * Frozen indexes can't be added to.
+	 * @throws UnsupportedOperationException - always
+	 */
+	@Override
+	protected void add(String word, int document, int pos) {
+		throw new UnsupportedOperationException("A frozen index can't be added to.");
+	}
+
+	/**
+	 * Frozen indexes can't be added to.
+	 * @throws UnsupportedOperationException - always
+	 */
+	@Override
+	public void addAll(String[] words, String path, int start) {
+		throw new UnsupportedOperationException("A frozen index can't be added to.");
+	}
+
+	/**
+	 * Frozen indexes can't be added to.
+	 * @throws UnsupportedOperationException - always
+	 */
+	@Override
+	public void addBatch(String[] words, int count, String path, int offset) {
+		throw new UnsupportedOperationException("A frozen index can't be added to.");
+	}
+
+	/**
+	 * Frozen indexes can't be added to.
+	 * @throws UnsupportedOperationException - always
+	 */
+	@Override
+	public void addAll(InvertedIndex other) {
+		throw new UnsupportedOperationException("A frozen index can't be added to.");
+	}
+
+	/**
+	 * Returns the words in this index in sorted order. The dictionary has no
+	 * sorted set to hand out, so unlike other indexes this is a copy.
+	 * @return sorted set of words
+	 */
+	@Override
+	public NavigableSet<String> words() {
+		return Collections.unmodifiableNavigableSet(new TreeSet<String>(words));
+	}
+
+	/**
+	 * Returns a copy of the words in this index as a sorted list.
+	 * @return sorted list of words
+	 */
+	@Override
+	public List<String> copyWords() {
+		return new ArrayList<String>(words);
+	}
+
+	/**
+	 * Copies every word and path index into a sorted map, so a frozen index can
+	 * be merged into another index. The path indexes are copied too, since they
+	 * are still searched here and the index they're merged into may change them.
+	 * @return sorted map of words to copies of their path indexes
+	 */
+	@Override
+	protected NavigableMap<String, PathIndex> postings() {
+		NavigableMap<String, PathIndex> copy = new TreeMap<String, PathIndex>();
+		for (int ordinal = 0; ordinal < postings.length; ordinal++)
+			copy.put(words.get(ordinal), postings[ordinal].copy());
+		return copy;
+	}
+
+	/**
+	 * Returns the dictionary of words in this index, in the same order as their ordinals.
+	 * @return dictionary of words
+	 */
+	public TermDictionary getDictionary() {
+		return words;
+	}
+
+	@Override
+	protected PathIndex find(String word) {
+		int ordinal = words.ordinal(word);
+		return ordinal < 0 ? null : postings[ordinal];
+	}
+
+	@Override
+	protected List<PathIndex> expand(String prefix) {
+		//every word starting with the prefix sits in one range of ordinals
+		int start = words.lowerBound(prefix);
+		return Arrays.asList(postings).subList(start, Math.max(start, words.prefixEnd(prefix)));
+	}
+}
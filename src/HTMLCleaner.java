@@ -59,21 +59,15 @@ public class HTMLCleaner {
 	}
 
 	/**
-	 * Removes all HTML (including any CSS and JavaScript).
+	 * Removes all HTML (including any CSS and JavaScript). This gives the same
+	 * text as stripping comments, the head, style and script elements, tags and
+	 * entities one after another with the methods above, but does it in a
+	 * single pass with {@link HTMLStripper}.
 	 *
 	 * @param html - text including HTML to remove
 	 * @return text without any HTML, CSS, or JavaScript
 	 */
 	public static String stripHtml(String html) {
-		html = stripComments(html);
-
-		html = stripElement(html, "head");
-		html = stripElement(html, "style");
-		html = stripElement(html, "script");
-
-		html = stripTags(html);
-		html = stripEntities(html);
-
-		return html;
+		return HTMLStripper.strip(html);
 	}
 }
@@ -47,18 +47,19 @@ public class HTMLFinder {
 		
 	/**
 	 * Helper method which calls a recursive function to find html/htm files
+	 * and adds each one to a pipeline as soon as it is found
 	 * Also skips over that step if the path is a path to a single file
 	 * @param path - path to a file or directory
-	 * @return a File array of html/htm files ONLY
+	 * @param pipeline - pipeline to add html/htm files to
 	 */
-	public static void findHtmlThreaded(String path, WorkQueue queue, InvertedIndex index) throws IOException{
+	public static void findHtmlThreaded(String path, IndexPipeline pipeline) throws IOException{
 		//create File object of the String type path
 		Path p = Paths.get(path);
 
 		//check if the path is a directory or not.
 		//if it is a directory, call our recursive function to iterate through the directory
 		if (Files.isDirectory(p))
-			findHtmlThreaded(Files.newDirectoryStream(p), queue, index);
+			findHtmlThreaded(Files.newDirectoryStream(p), pipeline);
 		
 		//checks if its a regular file
 		if (Files.isRegularFile(p)) {
@@ -67,7 +68,7 @@ public class HTMLFinder {
 
 			//check if filename ends with html or htm
 			if (fileName.endsWith(".html") || fileName.endsWith(".htm"))
-				queue.execute(new InvertedIndexBuilder.BuildTask(index, p));
+				pipeline.add(p);
 		}
 	}
 	
@@ -100,14 +101,14 @@ public class HTMLFinder {
 	 * Recursive function that iterates through a directory and any sub-directories
 	 * Primarily looks for html/htm files
 	 * @param files - list/array of files/paths found in a directory
-	 * @param output - output ArrayList that holds only html/htm file paths
+	 * @param pipeline - pipeline to add html/htm files to
 	 */
-	private static void findHtmlThreaded(DirectoryStream<Path> ds, WorkQueue queue, InvertedIndex index) throws IOException {
+	private static void findHtmlThreaded(DirectoryStream<Path> ds, IndexPipeline pipeline) throws IOException {
 		//iterates through the stream
 		for (Path p : ds) {
 			//checks if directory to call itself
 			if (Files.isDirectory(p))
-				findHtmlThreaded(Files.newDirectoryStream(p), queue, index);
+				findHtmlThreaded(Files.newDirectoryStream(p), pipeline);
 
 			//checks if its a regular file
 			if (Files.isRegularFile(p)) {
@@ -116,7 +117,7 @@ public class HTMLFinder {
 
 				//check if filename ends with html or htm
 				if (fileName.endsWith(".html") || fileName.endsWith(".htm"))
-					queue.execute(new InvertedIndexBuilder.BuildTask(index, p));
+					pipeline.add(p);
 			}
 		}
 	}
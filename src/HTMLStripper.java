@@ -0,0 +1,422 @@
+/**
+ * Removes HTML the same way {@link HTMLCleaner#stripHtml(String)} does, but in
+ * one pass over the text instead of six regular expressions that each copy the
+ * whole page. Text is written in as it comes, in pieces of any size, and what
+ * is left of it is written out to a {@link Sink} as soon as it's known to be
+ * text, so a page never has to be held in memory all at once.
+ *
+ * Every regular expression of the cleaner is a stage here, and every stage
+ * hands its output to the next one in the same order the cleaner strips them:
+ * comments, then the head, style and script elements, then tags and finally
+ * entities. Each stage only holds on to text while it could still be part of
+ * something it removes. The stages keep every quirk of the expressions they
+ * replace, for example:
+ * <ul>
+ * <li>comments with a period or dollar sign before their end are kept</li>
+ * <li>elements are matched by prefix and without regard to ASCII case, so
+ * <code>&lt;header&gt;</code> counts as a head element</li>
+ * <li>a tag ends at the first <code>&gt;</code> after it, whatever is in between</li>
+ * <li>entities end at the first semicolon unless whitespace or a dollar sign comes first</li>
+ * </ul>
+ *
+ * @author Robert Macaibay
+ */
+public class HTMLStripper {
+	//what a removed piece of html is replaced by
+	private static final char[] SPACE = { ' ' };
+
+	//first stage, which passes its text down the rest of them
+	private final Stage first;
+
+	/**
+	 * Creates a stripper that writes the text it finds to a sink.
+	 * @param out - where the text without any html goes
+	 */
+	public HTMLStripper(Sink out) {
+		Stage entities = new EntityStage(out);
+		Stage tags = new TagStage(entities);
+		Stage script = new ElementStage("script", tags);
+		Stage style = new ElementStage("style", script);
+		Stage head = new ElementStage("head", style);
+		this.first = new CommentStage(head);
+	}
+
+	/**
+	 * Strips the html out of the next piece of a page.
+	 * @param html - array holding the html
+	 * @param off - where the piece starts
+	 * @param len - number of chars in the piece
+	 */
+	public void write(char[] html, int off, int len) {
+		first.write(html, off, len);
+	}
+
+	/**
+	 * Strips the html out of the next piece of a page.
+	 * @param html - next piece of html
+	 */
+	public void write(String html) {
+		char[] buffer = new char[Math.min(html.length(), 8192)];
+		for (int start = 0; start < html.length(); start += buffer.length) {
+			int length = Math.min(buffer.length, html.length() - start);
+			html.getChars(start, start + length, buffer, 0);
+			first.write(buffer, 0, length);
+		}
+	}
+
+	/**
+	 * Tells every stage the page is over, so anything they were holding on to
+	 * that turned out not to be html is written out. The stripper can't be used afterwards.
+	 */
+	public void end() {
+		first.end();
+	}
+
+	/**
+	 * Removes all HTML (including any CSS and JavaScript) in a single pass.
+	 * @param html - text including HTML to remove
+	 * @return text without any HTML, CSS, or JavaScript
+	 */
+	public static String strip(String html) {
+		StringBuilder text = new StringBuilder(html.length());
+		HTMLStripper stripper = new HTMLStripper(new Sink() {
+			@Override
+			public void write(char[] chars, int off, int len) {
+				text.append(chars, off, len);
+			}
+
+			@Override
+			public void end() {
+			}
+		});
+		stripper.write(html);
+		stripper.end();
+		return text.toString();
+	}
+
+	/**
+	 * Receives the text left over once the html is gone.
+	 */
+	public interface Sink {
+		/**
+		 * Receives the next piece of text. The array is reused once this returns.
+		 * @param text - array holding the text
+		 * @param off - where the piece starts
+		 * @param len - number of chars in the piece
+		 */
+		public void write(char[] text, int off, int len);
+
+		/**
+		 * Called once after the last piece of text.
+		 */
+		public void end();
+	}
+
+	/**
+	 * One of the expressions of the cleaner, which passes on everything it doesn't remove.
+	 * Text it might still remove is held back until it knows either way.
+	 */
+	private static abstract class Stage implements Sink {
+		//stage the text goes to next
+		protected final Sink next;
+		//text we're holding back
+		private char[] held;
+		private int length;
+
+		public Stage(Sink next) {
+			this.next = next;
+			this.held = new char[64];
+		}
+
+		/**
+		 * Holds back a char that might be removed.
+		 * @param c - char to hold back
+		 */
+		protected void hold(char c) {
+			if (length == held.length) {
+				char[] bigger = new char[held.length * 2];
+				System.arraycopy(held, 0, bigger, 0, length);
+				held = bigger;
+			}
+			held[length++] = c;
+		}
+
+		/**
+		 * Passes on everything we held back, which turned out not to be html.
+		 */
+		protected void release() {
+			if (length > 0)
+				next.write(held, 0, length);
+			length = 0;
+		}
+
+		/**
+		 * Throws away everything we held back and passes on a space in its place.
+		 */
+		protected void replace() {
+			length = 0;
+			next.write(SPACE, 0, 1);
+		}
+
+		/**
+		 * Passes on text up to the next char this stage cares about.
+		 * @param text - array holding the text
+		 * @param start - where to start looking
+		 * @param end - where to stop looking
+		 * @param trigger - char that could start something this stage removes
+		 * @return position of the trigger, or end if there isn't one
+		 */
+		protected int skip(char[] text, int start, int end, char trigger) {
+			int i = start;
+			while (i < end && text[i] != trigger)
+				i++;
+			if (i > start)
+				next.write(text, start, i - start);
+			return i;
+		}
+
+		@Override
+		public void end() {
+			//whatever we were still holding never finished, so it's kept as it is
+			release();
+			next.end();
+		}
+	}
+
+	/**
+	 * Same as <code>&lt;!--[^.$]*?--&gt;</code>
+	 */
+	private static class CommentStage extends Stage {
+		private static final String OPEN = "<!--";
+		//number of chars of the opening matched so far, 0 while in plain text
+		private int matched;
+		//number of dashes in a row at the end of the comment so far
+		private int dashes;
+
+		public CommentStage(Sink next) {
+			super(next);
+		}
+
+		@Override
+		public void write(char[] text, int off, int len) {
+			int end = off + len;
+			int i = off;
+
+			while (i < end) {
+				if (matched == 0) {
+					i = skip(text, i, end, '<');
+					if (i == end)
+						return;
+					hold(text[i++]);
+					matched = 1;
+				} else if (matched < OPEN.length()) {
+					char c = text[i];
+					if (c != OPEN.charAt(matched)) {
+						//not a comment after all, look at this char again as plain text
+						release();
+						matched = 0;
+						continue;
+					}
+					hold(c);
+					matched++;
+					dashes = 0;
+					i++;
+				} else {
+					char c = text[i++];
+					if (c == '>' && dashes >= 2) {
+						replace();
+						matched = 0;
+					} else if (c == '.' || c == '$') {
+						//comments can't have these, and no comment that started before this can end after it
+						hold(c);
+						release();
+						matched = 0;
+					} else {
+						hold(c);
+						dashes = c == '-' ? dashes + 1 : 0;
+					}
+				}
+			}
+		}
+
+		@Override
+		public void end() {
+			matched = 0;
+			super.end();
+		}
+	}
+
+	/**
+	 * Same as <code>(?i)&lt;name[\S\s]*?/name[\S\s]*?&gt;</code>
+	 */
+	private static class ElementStage extends Stage {
+		//where we are in an element
+		private static final int TEXT = 0, OPENING = 1, INSIDE = 2, CLOSING = 3;
+
+		//opening and closing, in lowercase
+		private final String open;
+		private final String close;
+		private int state;
+		//number of chars of the opening or closing matched so far
+		private int matched;
+
+		public ElementStage(String name, Sink next) {
+			super(next);
+			this.open = "<" + name;
+			this.close = "/" + name;
+		}
+
+		@Override
+		public void write(char[] text, int off, int len) {
+			int end = off + len;
+			int i = off;
+
+			while (i < end) {
+				if (state == TEXT) {
+					i = skip(text, i, end, '<');
+					if (i == end)
+						return;
+					hold(text[i++]);
+					state = OPENING;
+					matched = 1;
+				} else if (state == OPENING) {
+					char c = text[i];
+					if (lower(c) != open.charAt(matched)) {
+						//not this element after all, look at this char again as plain text
+						release();
+						state = TEXT;
+						continue;
+					}
+					hold(c);
+					i++;
+					if (++matched == open.length()) {
+						state = INSIDE;
+						matched = 0;
+					}
+				} else if (state == INSIDE) {
+					char c = text[i++];
+					hold(c);
+					//the closing only starts with a slash, so a mismatch starts over or restarts on one
+					if (lower(c) == close.charAt(matched))
+						matched++;
+					else
+						matched = c == '/' ? 1 : 0;
+					if (matched == close.length())
+						state = CLOSING;
+				} else {
+					char c = text[i++];
+					if (c == '>') {
+						replace();
+						state = TEXT;
+					} else {
+						hold(c);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Lowercases ASCII letters only, like a case insensitive expression does.
+		 * @param c - char to lowercase
+		 * @return lowercase char
+		 */
+		private static char lower(char c) {
+			return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+		}
+
+		@Override
+		public void end() {
+			state = TEXT;
+			super.end();
+		}
+	}
+
+	/**
+	 * Same as <code>(&lt;[^.$]*?&gt;)|(&lt;[\S\s]+?&gt;)</code>, which always ends at
+	 * the first <code>&gt;</code>: the first half takes it if nothing in between is a
+	 * period or dollar sign, and the second half takes it otherwise.
+	 */
+	private static class TagStage extends Stage {
+		private boolean inside;
+
+		public TagStage(Sink next) {
+			super(next);
+		}
+
+		@Override
+		public void write(char[] text, int off, int len) {
+			int end = off + len;
+			int i = off;
+
+			while (i < end) {
+				if (!inside) {
+					i = skip(text, i, end, '<');
+					if (i == end)
+						return;
+					hold(text[i++]);
+					inside = true;
+				} else {
+					char c = text[i++];
+					if (c == '>') {
+						replace();
+						inside = false;
+					} else {
+						hold(c);
+					}
+				}
+			}
+		}
+
+		@Override
+		public void end() {
+			inside = false;
+			super.end();
+		}
+	}
+
+	/**
+	 * Same as <code>&amp;[^\s$]*?;</code>
+	 */
+	private static class EntityStage extends Stage {
+		private boolean inside;
+
+		public EntityStage(Sink next) {
+			super(next);
+		}
+
+		@Override
+		public void write(char[] text, int off, int len) {
+			int end = off + len;
+			int i = off;
+
+			while (i < end) {
+				if (!inside) {
+					i = skip(text, i, end, '&');
+					if (i == end)
+						return;
+					hold(text[i++]);
+					inside = true;
+				} else {
+					char c = text[i++];
+					if (c == ';') {
+						replace();
+						inside = false;
+					} else if (c == '$' || c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r') {
+						//entities can't have these, and no entity that started before this can end after it
+						hold(c);
+						release();
+						inside = false;
+					} else {
+						hold(c);
+					}
+				}
+			}
+		}
+
+		@Override
+		public void end() {
+			inside = false;
+			super.end();
+		}
+	}
+}
@@ -0,0 +1,756 @@
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds an index from html files or urls in four stages, each with its own
+ * threads:
+ * <ol>
+ * <li>fetch reads a file or url and decodes it a chunk at a time</li>
+ * <li>extract strips the html out of every chunk with a {@link HTMLStripper}</li>
+ * <li>tokenize splits the text into words with a {@link WordTokenizer}, and
+ * looks up the one String of every word in a {@link TermTable}</li>
+ * <li>insert adds the words to the index a batch at a time</li>
+ * </ol>
+ * Documents move through the stages in pieces, so a thread waiting on a disk
+ * or a lock never holds up the threads that are parsing, and no document is
+ * ever in memory all at once. Every worker of a stage has a bounded queue of
+ * its own, so a stage that falls behind makes the stages feeding it wait
+ * instead of letting pieces pile up. Every piece of a document goes to the
+ * same worker of each stage, so the pieces of a document stay in order.
+ * A document that fails in one stage is dropped by every stage after it,
+ * but its last piece still goes all the way through, so the document isn't
+ * finished while any of its pieces are still waiting in a queue.
+ *
+ * A pipeline without any threads runs every stage on the thread adding the
+ * document, one document after another, which is how an index is built without threads.
+ *
+ * How fast every stage is going and how full its queues get is kept track of
+ * and reported by {@link #getStats()}, which shows what stage holds up the rest.
+ *
+ * @author Robert Macaibay
+ */
+public class IndexPipeline {
+	//number of bytes read, or chars stripped or split, at once
+	private static final int CHUNK = 8192;
+	//number of words added to the index at once
+	private static final int BATCH = 4096;
+	//number of chars without whitespace kept back for the next piece before splitting them elsewhere
+	private static final int CARRY = CHUNK * 4;
+	//number of pieces each worker holds before whoever feeds it has to wait
+	public static final int CAPACITY = 16;
+
+	//sent to a worker to tell it to stop
+	private static final Piece STOP = new Piece(null, null, null, 0, true);
+
+	//index the words go to
+	private final InvertedIndex index;
+	//one String for every distinct word, shared by every tokenizer
+	private final TermTable terms;
+	//every stage, in order
+	private final Stage fetch;
+	private final Stage extract;
+	private final Stage tokenize;
+	private final Stage insert;
+	private final Stage[] stages;
+	//whether the stages run on threads of their own
+	private final boolean threaded;
+	//when the pipeline started
+	private final long started;
+
+	//number of documents added so far, which picks their workers
+	private int added;
+	//number of documents added but not finished
+	private int pending;
+
+	/**
+	 * Creates a pipeline that runs every stage on the thread adding documents.
+	 * @param index - index to add words to
+	 */
+	public IndexPipeline(InvertedIndex index) {
+		this(index, 0, 0, 0, 0);
+	}
+
+	/**
+	 * Creates a pipeline that splits a number of threads between the stages.
+	 * Stripping and splitting words take the most work, so they get the most
+	 * threads, and every stage gets at least one.
+	 * @param index - index to add words to, which has to be thread-safe
+	 * @param threads - number of threads to split between the stages
+	 */
+	public IndexPipeline(InvertedIndex index, int threads) {
+		this(index, split(threads));
+	}
+
+	/**
+	 * Creates a pipeline with the given number of threads for every stage.
+	 * @param index - index to add words to, which has to be thread-safe
+	 * @param threads - number of threads to fetch, extract, tokenize and insert with
+	 */
+	public IndexPipeline(InvertedIndex index, int[] threads) {
+		this(index, threads[0], threads[1], threads[2], threads[3]);
+	}
+
+	/**
+	 * Creates a pipeline with the given number of threads for every stage. Either
+	 * every stage gets threads, or none of them do.
+	 * @param index - index to add words to, which has to be thread-safe if there are threads
+	 * @param fetchers - number of threads reading files and urls
+	 * @param extractors - number of threads stripping html
+	 * @param tokenizers - number of threads splitting text into words
+	 * @param inserters - number of threads adding words to the index
+	 */
+	public IndexPipeline(InvertedIndex index, int fetchers, int extractors, int tokenizers, int inserters) {
+		this.threaded = fetchers > 0;
+		if ((extractors > 0) != threaded || (tokenizers > 0) != threaded || (inserters > 0) != threaded)
+			throw new IllegalArgumentException("Either every stage needs threads or none of them can have any.");
+
+		this.index = index;
+		this.terms = new TermTable();
+		this.started = System.nanoTime();
+		this.insert = new InsertStage(inserters);
+		this.tokenize = new TokenizeStage(tokenizers, insert);
+		this.extract = new ExtractStage(extractors, tokenize);
+		this.fetch = new FetchStage(fetchers, extract);
+		this.stages = new Stage[] { fetch, extract, tokenize, insert };
+
+		for (Stage stage : stages)
+			stage.start();
+	}
+
+	/**
+	 * Splits a number of threads between the stages.
+	 * @param threads - number of threads to split
+	 * @return number of threads to fetch, extract, tokenize and insert with
+	 */
+	public static int[] split(int threads) {
+		int fetchers = Math.max(1, threads / 4);
+		int inserters = Math.max(1, threads / 4);
+		int parsers = Math.max(2, threads - fetchers - inserters);
+		return new int[] { fetchers, (parsers + 1) / 2, parsers / 2, inserters };
+	}
+
+	/**
+	 * Adds a html file to the index. Without threads the file is added before
+	 * this returns; otherwise this only waits if the fetch stage is full.
+	 * @param file - path to html file
+	 */
+	public void add(Path file) {
+		fetch.send(new Piece(begin(file.toString(), file, null), null, null, 0, true));
+	}
+
+	/**
+	 * Adds the page of a url to the index. Without threads the page is added
+	 * before this returns; otherwise this only waits if the fetch stage is full.
+	 * @param url - url of the page
+	 */
+	public void add(URL url) {
+		fetch.send(new Piece(begin(url.toString(), null, url), null, null, 0, true));
+	}
+
+	/**
+	 * Starts keeping track of a new document.
+	 * @param location - path or url of the document
+	 * @param file - path to the file, or null for a url
+	 * @param url - url of the page, or null for a file
+	 * @return the new document
+	 */
+	private synchronized Document begin(String location, Path file, URL url) {
+		pending++;
+		return new Document(added++, location, file, url);
+	}
+
+	/**
+	 * Marks a document as finished once its last piece got through the insert
+	 * stage, whether all of its words were added or it failed.
+	 * @param document - document that is finished
+	 */
+	private synchronized void finished(Document document) {
+		if (document.finished)
+			return;
+		document.finished = true;
+
+		pending--;
+		if (pending <= 0)
+			notifyAll();
+	}
+
+	/**
+	 * Waits for every document added so far to be finished.
+	 */
+	public synchronized void finish() {
+		while (pending > 0) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting on the pipeline.", e);
+			}
+		}
+	}
+
+	/**
+	 * Stops every thread of the pipeline. Call {@link #finish()} first, since
+	 * anything still in the pipeline is dropped.
+	 */
+	public void shutdown() {
+		for (Stage stage : stages)
+			stage.stop();
+	}
+
+	/**
+	 * Reports how every stage has done since the pipeline started: how much it
+	 * got through every second, what share of its threads' time they spent
+	 * working, waiting on the next stage, and waiting for work, and how full its
+	 * queues were on average and at most every time a piece was put in them.
+	 * The stage that is busy the most while the one before it waits on it is
+	 * holding up the rest.
+	 * @return table of statistics with one line for every stage
+	 */
+	public String getStats() {
+		double seconds = (System.nanoTime() - started) / 1e9;
+		StringBuilder stats = new StringBuilder();
+		stats.append(String.format("%-9s %7s %9s %14s %8s %8s %8s %11s%n",
+				"stage", "threads", "documents", "throughput", "working", "blocked", "idle", "queue"));
+
+		for (Stage stage : stages) {
+			//every thread of the stage could have been doing something the whole time
+			double time = Math.max(1, stage.workers.length) * seconds * 1e9;
+			stats.append(String.format("%-9s %7d %9d %10.0f %s %7.1f%% %7.1f%% %7.1f%% %5.1f/%d/%d%n",
+					stage.name,
+					stage.workers.length,
+					stage.documents.get(),
+					stage.amount.get() / seconds,
+					stage.unit,
+					100 * stage.working.get() / time,
+					100 * stage.blocked.get() / time,
+					100 * stage.idle.get() / time,
+					stage.samples.get() == 0 ? 0.0 : (double) stage.occupancy.get() / stage.samples.get(),
+					stage.peak.get(),
+					CAPACITY));
+		}
+		return stats.toString();
+	}
+
+	/**
+	 * Gets the index a document's words should go to. Thread-safe indexes hand
+	 * out a private index per thread so inserters don't wait on each other for
+	 * the lock; those have to be merged in with
+	 * {@link InvertedIndexBuilder#mergePartials(InvertedIndex, WorkQueue)} once
+	 * the pipeline finishes. Any other index, like a {@link ConcurrentInvertedIndex},
+	 * is added to directly. A {@link ShardedIndex} first picks the shard the document belongs in.
+	 * @param location - path or url of the document
+	 * @return index to add words to
+	 */
+	private InvertedIndex targetOf(String location) {
+		//without threads there is nothing to merge afterwards
+		if (!threaded)
+			return index;
+
+		InvertedIndex target = index;
+		if (target instanceof ShardedIndex)
+			target = ((ShardedIndex) target).route(location);
+		if (target instanceof ThreadSafeInvertedIndex)
+			return ((ThreadSafeInvertedIndex) target).getPartial();
+		return target;
+	}
+
+	/**
+	 * A document on its way through the pipeline, along with whatever each
+	 * stage needs to remember about it between pieces. Every piece of a
+	 * document goes to the same worker of a stage, so only one thread ever
+	 * uses what a stage keeps here.
+	 */
+	private static class Document {
+		//picks the worker of every stage
+		private final int key;
+		//path or url of the document
+		private final String location;
+		//where to read it from, one of these is null
+		private final Path file;
+		private final URL url;
+
+		//set once a stage fails or skips it, so the other stages drop the rest of its pieces
+		private volatile boolean failed;
+		//set once the document is finished, guarded by the pipeline
+		private boolean finished;
+
+		//kept by the extract stage
+		private HTMLStripper stripper;
+		//kept by the tokenize stage
+		private WordTokenizer tokenizer;
+		private char[] text;
+		private int length;
+		private String[] words;
+		private int count;
+		//kept by the insert stage
+		private InvertedIndex target;
+		private int inserted;
+
+		public Document(int key, String location, Path file, URL url) {
+			this.key = key;
+			this.location = location;
+			this.file = file;
+			this.url = url;
+		}
+	}
+
+	/**
+	 * Part of a document passed from one stage to the next, which is either text or words.
+	 */
+	private static class Piece {
+		private final Document document;
+		private final char[] text;
+		private final String[] words;
+		//number of chars or words in this piece
+		private final int length;
+		//whether this is the last piece of the document
+		private final boolean last;
+
+		public Piece(Document document, char[] text, String[] words, int length, boolean last) {
+			this.document = document;
+			this.text = text;
+			this.words = words;
+			this.length = length;
+			this.last = last;
+		}
+	}
+
+	/**
+	 * One stage of the pipeline, with a worker and a bounded queue for every
+	 * thread, or none at all if it runs on whatever thread sends it a piece.
+	 */
+	private abstract class Stage {
+		//name and unit of work for the statistics
+		private final String name;
+		private final String unit;
+		//stage the pieces go to next, or null for the last stage
+		private final Stage next;
+		private final Worker[] workers;
+
+		//statistics of every worker together, times are in nanoseconds
+		protected final AtomicLong documents;
+		protected final AtomicLong amount;
+		private final AtomicLong working;
+		private final AtomicLong blocked;
+		private final AtomicLong idle;
+		//sum and number of queue sizes seen when putting in a piece, and the biggest one
+		private final AtomicLong occupancy;
+		private final AtomicLong samples;
+		private final AtomicLong peak;
+
+		public Stage(String name, String unit, int threads, Stage next) {
+			this.name = name;
+			this.unit = unit;
+			this.next = next;
+			this.workers = new Worker[threads];
+			for (int i = 0; i < threads; i++)
+				workers[i] = new Worker(this, name + "-" + i);
+
+			this.documents = new AtomicLong();
+			this.amount = new AtomicLong();
+			this.working = new AtomicLong();
+			this.blocked = new AtomicLong();
+			this.idle = new AtomicLong();
+			this.occupancy = new AtomicLong();
+			this.samples = new AtomicLong();
+			this.peak = new AtomicLong();
+		}
+
+		/**
+		 * Does the work of this stage on one piece.
+		 * @param piece - piece to work on
+		 */
+		protected abstract void process(Piece piece);
+
+		/**
+		 * Hands a piece to this stage. With threads it goes in the queue of the
+		 * document's worker, waiting as long as that queue is full; otherwise it is worked on right away.
+		 * @param piece - piece to hand over
+		 * @return nanoseconds spent waiting for room in the queue
+		 */
+		public long send(Piece piece) {
+			if (workers.length == 0) {
+				run(piece);
+				return 0;
+			}
+
+			ArrayBlockingQueue<Piece> queue = workers[piece.document.key % workers.length].queue;
+			long waited = 0;
+			if (!queue.offer(piece)) {
+				long start = System.nanoTime();
+				try {
+					queue.put(piece);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while waiting on the " + name + " stage.", e);
+				}
+				waited = System.nanoTime() - start;
+			}
+
+			long size = queue.size();
+			occupancy.addAndGet(size);
+			samples.incrementAndGet();
+			peak.accumulateAndGet(size, Math::max);
+			return waited;
+		}
+
+		/**
+		 * Hands a piece to the next stage, counting any time spent waiting on it against this stage.
+		 * @param piece - piece to hand over
+		 */
+		protected void forward(Piece piece) {
+			long waited = next.send(piece);
+			blocked.addAndGet(waited);
+			if (Thread.currentThread() instanceof Worker)
+				((Worker) Thread.currentThread()).waited += waited;
+		}
+
+		/**
+		 * Works on a piece unless its document already failed, and fails the document if the work fails.
+		 * @param piece - piece to work on
+		 */
+		private void run(Piece piece) {
+			Document document = piece.document;
+			if (!document.failed) {
+				//count the piece first, the last one may let whoever waits on the pipeline read the statistics
+				amount.addAndGet(piece.length);
+				if (piece.last)
+					documents.incrementAndGet();
+				try {
+					process(piece);
+					return;
+				} catch (RuntimeException e) {
+					System.err.println("Warning: The " + name + " stage couldn't finish " + document.location + ".");
+					e.printStackTrace();
+					document.failed = true;
+				}
+			}
+
+			//the rest of a failed document is dropped, but its last piece still has to get through
+			if (piece.last)
+				drain(document);
+		}
+
+		/**
+		 * Passes on the end of a failed document behind whatever of it is still
+		 * queued in the next stages, and finishes it once it got through them all.
+		 * @param document - document that failed
+		 */
+		private void drain(Document document) {
+			if (next == null)
+				finished(document);
+			else
+				forward(new Piece(document, null, null, 0, true));
+		}
+
+		/**
+		 * Starts every worker.
+		 */
+		public void start() {
+			for (Worker worker : workers)
+				worker.start();
+		}
+
+		/**
+		 * Tells every worker to stop once it gets to the end of its queue.
+		 */
+		public void stop() {
+			for (Worker worker : workers) {
+				try {
+					worker.queue.put(STOP);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A thread of a stage, which works on the pieces in its queue one at a time.
+	 */
+	private static class Worker extends Thread {
+		private final Stage stage;
+		private final ArrayBlockingQueue<Piece> queue;
+		//nanoseconds this worker spent waiting on the next stage
+		private long waited;
+
+		public Worker(Stage stage, String name) {
+			super(name);
+			this.stage = stage;
+			this.queue = new ArrayBlockingQueue<Piece>(CAPACITY);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				long start = System.nanoTime();
+				Piece piece;
+				try {
+					piece = queue.take();
+				} catch (InterruptedException e) {
+					System.err.println("Warning: Pipeline worker interrupted.");
+					Thread.currentThread().interrupt();
+					return;
+				}
+				if (piece == STOP)
+					return;
+
+				long taken = System.nanoTime();
+				long before = waited;
+				stage.run(piece);
+				stage.idle.addAndGet(taken - start);
+				stage.working.addAndGet(System.nanoTime() - taken - (waited - before));
+			}
+		}
+	}
+
+	/**
+	 * Reads a file or url and passes it on a chunk of chars at a time.
+	 */
+	private class FetchStage extends Stage {
+
+		public FetchStage(int threads, Stage next) {
+			super("fetch", "chars/s", threads, next);
+		}
+
+		@Override
+		protected void process(Piece piece) {
+			Document document = piece.document;
+			if (document.file != null) {
+				try {
+					read(document);
+				} catch (IOException e) {
+					//files we can't read are skipped
+					e.printStackTrace();
+					document.failed = true;
+				}
+			} else {
+				String html = LinkParser.fetchHtml(document.url);
+				//pages that aren't html are skipped
+				if (html == null)
+					document.failed = true;
+
+				for (int start = 0; html != null && start < html.length(); start += CHUNK) {
+					char[] chunk = new char[Math.min(CHUNK, html.length() - start)];
+					html.getChars(start, start + chunk.length, chunk, 0);
+					send(document, chunk, chunk.length);
+				}
+			}
+			//even a skipped document ends, after whatever was read of it before
+			forward(new Piece(document, null, null, 0, true));
+		}
+
+		/**
+		 * Reads a file a chunk at a time. Malformed UTF-8 is replaced just like
+		 * {@link String#String(byte[], java.nio.charset.Charset)} does, and a char
+		 * cut in half between chunks waits for the rest of its bytes.
+		 * @param document - document to read
+		 * @throws IOException - if the file can't be read
+		 */
+		private void read(Document document) throws IOException {
+			CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			ByteBuffer bytes = ByteBuffer.allocate(CHUNK);
+			CharBuffer chars = CharBuffer.allocate(CHUNK);
+
+			try (ReadableByteChannel channel = Files.newByteChannel(document.file)) {
+				boolean end = false;
+				while (!end) {
+					end = channel.read(bytes) < 0;
+					bytes.flip();
+					while (decoder.decode(bytes, chars, end).isOverflow())
+						chars = pass(document, chars);
+					chars = pass(document, chars);
+					bytes.compact();
+				}
+
+				while (decoder.flush(chars).isOverflow())
+					chars = pass(document, chars);
+				pass(document, chars);
+			}
+		}
+
+		/**
+		 * Passes on everything decoded so far, if there is anything.
+		 * @param document - document the chars are from
+		 * @param chars - buffer of decoded chars
+		 * @return buffer to decode the next chars into
+		 */
+		private CharBuffer pass(Document document, CharBuffer chars) {
+			if (chars.position() == 0)
+				return chars;
+			send(document, chars.array(), chars.position());
+			return CharBuffer.allocate(CHUNK);
+		}
+
+		/**
+		 * Passes on a chunk of text, which belongs to the next stage afterwards.
+		 * @param document - document the text is from
+		 * @param text - array holding the text
+		 * @param length - number of chars of text
+		 */
+		private void send(Document document, char[] text, int length) {
+			amount.addAndGet(length);
+			forward(new Piece(document, text, null, length, false));
+		}
+	}
+
+	/**
+	 * Strips the html out of every chunk and passes on the text a chunk at a time.
+	 */
+	private class ExtractStage extends Stage {
+
+		public ExtractStage(int threads, Stage next) {
+			super("extract", "chars/s", threads, next);
+		}
+
+		@Override
+		protected void process(Piece piece) {
+			Document document = piece.document;
+			if (document.stripper == null)
+				document.stripper = new HTMLStripper(new TextSink(document));
+
+			if (piece.text != null)
+				document.stripper.write(piece.text, 0, piece.length);
+			if (piece.last)
+				document.stripper.end();
+		}
+
+		/**
+		 * Collects the text the stripper leaves behind into chunks.
+		 */
+		private class TextSink implements HTMLStripper.Sink {
+			private final Document document;
+			private char[] text;
+			private int length;
+
+			public TextSink(Document document) {
+				this.document = document;
+				this.text = new char[CHUNK];
+			}
+
+			@Override
+			public void write(char[] chars, int off, int len) {
+				while (len > 0) {
+					int copied = Math.min(len, text.length - length);
+					System.arraycopy(chars, off, text, length, copied);
+					length += copied;
+					off += copied;
+					len -= copied;
+
+					//the chunk belongs to the next stage now, so start another one
+					if (length == text.length) {
+						forward(new Piece(document, text, null, length, false));
+						text = new char[CHUNK];
+						length = 0;
+					}
+				}
+			}
+
+			@Override
+			public void end() {
+				forward(new Piece(document, text, null, length, true));
+			}
+		}
+	}
+
+	/**
+	 * Splits text into words and passes them on a batch at a time. Text is
+	 * always split right after whitespace so no word is ever cut in two, which
+	 * finds the same words as parsing it line by line with {@link WordParser}.
+	 * Text without any whitespace, like minified scripts, is split after
+	 * punctuation instead once more than CARRY chars of it pile up,
+	 * see {@link WordTokenizer#isBreak(char, char)}. The one exception is a
+	 * single word longer than that, which is still kept back whole until it
+	 * ends, since splitting it anywhere would change it.
+	 */
+	private class TokenizeStage extends Stage {
+
+		public TokenizeStage(int threads, Stage next) {
+			super("tokenize", "chars/s", threads, next);
+		}
+
+		@Override
+		protected void process(Piece piece) {
+			Document document = piece.document;
+			if (document.tokenizer == null) {
+				document.tokenizer = new WordTokenizer();
+				document.text = new char[CHUNK * 2];
+				document.words = new String[BATCH];
+			}
+
+			//keep the text after whatever was left of the last piece
+			if (document.length + piece.length > document.text.length) {
+				char[] bigger = new char[Math.max(document.text.length * 2, document.length + piece.length)];
+				System.arraycopy(document.text, 0, bigger, 0, document.length);
+				document.text = bigger;
+			}
+			System.arraycopy(piece.text, 0, document.text, document.length, piece.length);
+			document.length += piece.length;
+
+			//split up to the last whitespace, the rest might be the start of a word
+			int cut = document.length;
+			if (!piece.last) {
+				while (cut > 0 && !WordTokenizer.isSpace(document.text[cut - 1]))
+					cut--;
+				//don't keep back more and more text that has no whitespace in it
+				if (cut == 0 && document.length > CARRY) {
+					cut = document.length - 1;
+					while (cut > 0 && !WordTokenizer.isBreak(document.text[cut - 1], document.text[cut]))
+						cut--;
+				}
+			}
+
+			document.tokenizer.tokenize(document.text, 0, cut, (chars, off, len) -> {
+				document.words[document.count++] = terms.intern(chars, off, len);
+				if (document.count == BATCH) {
+					//the batch belongs to the next stage now, so start another one
+					forward(new Piece(document, null, document.words, document.count, false));
+					document.words = new String[BATCH];
+					document.count = 0;
+				}
+			});
+			System.arraycopy(document.text, cut, document.text, 0, document.length - cut);
+			document.length -= cut;
+
+			if (piece.last)
+				forward(new Piece(document, null, document.words, document.count, true));
+		}
+	}
+
+	/**
+	 * Adds every batch of words to the index. The document is always added,
+	 * even if it turned out to have no words.
+	 */
+	private class InsertStage extends Stage {
+
+		public InsertStage(int threads) {
+			super("insert", "words/s", threads, null);
+		}
+
+		@Override
+		protected void process(Piece piece) {
+			Document document = piece.document;
+			if (document.target == null)
+				document.target = targetOf(document.location);
+
+			document.target.addBatch(piece.words, piece.length, document.location, document.inserted);
+			document.inserted += piece.length;
+
+			if (piece.last)
+				finished(document);
+		}
+	}
+}
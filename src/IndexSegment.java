@@ -0,0 +1,452 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An immutable, binary copy of an {@link InvertedIndex} that is searched
+ * straight from a memory-mapped file instead of being loaded into the heap.
+ *
+ * The file is laid out as:
+ * <pre>
+ * postings    for every word: number of documents, then for every document the
+ *             gap from the previous document id, the count, the number of
+ *             position bytes and the positions as encoded by {@link PositionList}
+ * words       for every word: number of chars, then the chars
+ * word table  for every word: offset of its chars, offset of its postings
+ * documents   for every document: number of bytes, the path in UTF-8, then its number of words
+ * footer      magic, version, words, documents, word table offset, documents offset
+ * </pre>
+ *
+ * Words are stored in the same order as the index and compared char by char,
+ * so looking one up is a binary search over the word table. Documents get new
+ * ids in sorted path order. Only the document paths are read into the heap
+ * when the segment is opened.
+ *
+ * @author Robert Macaibay
+ */
+public class IndexSegment implements Closeable {
+	//marks a file as a segment
+	private static final int MAGIC = 0x424F4D53;
+	//version of the file layout
+	private static final int VERSION = 2;
+	//size of the footer in bytes
+	private static final int FOOTER = 32;
+	//size of a word table entry in bytes
+	private static final int ENTRY = 16;
+	//biggest segment file that can be mapped into one buffer
+	private static final long LIMIT = Integer.MAX_VALUE;
+
+	//file the segment was opened from
+	private final FileChannel channel;
+	//the whole file mapped into memory
+	private final MappedByteBuffer buffer;
+	//number of words in the segment
+	private final int words;
+	//where the word table starts
+	private final int table;
+	//paths of the documents in the segment
+	private final DocumentTable documents;
+
+	/**
+	 * Opens and maps a segment file.
+	 * @param channel - open channel to the file
+	 * @throws IOException - if the file can't be mapped or isn't a segment
+	 */
+	private IndexSegment(FileChannel channel) throws IOException {
+		this.channel = channel;
+
+		//a single mapping can only cover 2GB
+		long size = channel.size();
+		if (size < FOOTER || size > LIMIT)
+			throw new IOException("Segment file has an invalid size: " + size);
+
+		this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+		//read the footer at the end of the file
+		int footer = (int) size - FOOTER;
+		if (buffer.getInt(footer) != MAGIC || buffer.getInt(footer + 4) != VERSION)
+			throw new IOException("File is not a version " + VERSION + " index segment.");
+
+		this.words = buffer.getInt(footer + 8);
+		int count = buffer.getInt(footer + 12);
+		this.table = (int) buffer.getLong(footer + 16);
+
+		//read the document paths and lengths, which are the only things we keep in the heap
+		this.documents = new DocumentTable();
+		ByteBuffer view = buffer.duplicate();
+		view.position((int) buffer.getLong(footer + 24));
+		for (int i = 0; i < count; i++) {
+			byte[] path = new byte[view.getInt()];
+			view.get(path);
+			int document = documents.add(new String(path, StandardCharsets.UTF_8));
+			documents.updateLength(document, view.getInt());
+		}
+	}
+
+	/**
+	 * Opens a segment file for searching.
+	 * @param path - path to the segment file
+	 * @return opened segment
+	 * @throws IOException - if the file can't be read or isn't a segment
+	 */
+	public static IndexSegment open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new IndexSegment(channel);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes an index into a new segment file, replacing the file if it already
+	 * exists. A segment that would be too big to open again is given up on as
+	 * soon as it gets there, and the file is deleted.
+	 * @param index - index to write
+	 * @param path - path to the segment file
+	 * @throws IOException - if the file can't be written or would be over 2GB
+	 */
+	public static void write(InvertedIndex index, Path path) throws IOException {
+		try {
+			writeSegment(index, path);
+		} catch (IOException e) {
+			//whatever was written can't be opened anyway
+			Files.deleteIfExists(path);
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes an index into a new segment file.
+	 * @param index - index to write
+	 * @param path - path to the segment file
+	 * @throws IOException - if the file can't be written or would be over 2GB
+	 */
+	private static void writeSegment(InvertedIndex index, Path path) throws IOException {
+		DocumentTable table = index.getDocuments();
+		List<String> wordList = index.copyWords();
+
+		//find every document that is actually used and sort them by path
+		TreeMap<String, Integer> sorted = new TreeMap<String, Integer>();
+		for (String word : wordList)
+			for (Integer document : index.get(word).documents())
+				sorted.put(table.getPath(document), document);
+
+		//give every document a new id in path order
+		int[] remap = new int[table.size()];
+		int next = 0;
+		for (Integer document : sorted.values())
+			remap[document] = next++;
+
+		long[] wordOffsets = new long[wordList.size()];
+		long[] postingOffsets = new long[wordList.size()];
+
+		try (CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+				DataOutputStream out = new DataOutputStream(counter)) {
+			//write the postings of every word
+			for (int i = 0; i < wordList.size(); i++) {
+				PathIndex pi = index.get(wordList.get(i));
+				postingOffsets[i] = counter.written;
+
+				//documents have to be written in the order of their new ids
+				TreeMap<Integer, PositionList> postings = new TreeMap<Integer, PositionList>();
+				for (Integer document : pi.documents())
+					postings.put(remap[document], pi.getPositions(document));
+
+				out.writeInt(postings.size());
+				int previous = 0;
+				for (Map.Entry<Integer, PositionList> entry : postings.entrySet()) {
+					PositionList positions = entry.getValue();
+					writeVarInt(out, entry.getKey() - previous);
+					writeVarInt(out, positions.size());
+					writeVarInt(out, positions.bytes());
+					positions.writeBytes(out);
+					previous = entry.getKey();
+				}
+			}
+
+			//write the words themselves
+			for (int i = 0; i < wordList.size(); i++) {
+				String word = wordList.get(i);
+				wordOffsets[i] = counter.written;
+				out.writeInt(word.length());
+				out.writeChars(word);
+			}
+
+			//write the word table
+			long tableOffset = counter.written;
+			for (int i = 0; i < wordList.size(); i++) {
+				out.writeLong(wordOffsets[i]);
+				out.writeLong(postingOffsets[i]);
+			}
+
+			//write the document paths and lengths in id order
+			long documentsOffset = counter.written;
+			for (Map.Entry<String, Integer> document : sorted.entrySet()) {
+				byte[] bytes = document.getKey().getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+				out.writeInt(table.length(document.getValue()));
+			}
+
+			//write the footer
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(wordList.size());
+			out.writeInt(sorted.size());
+			out.writeLong(tableOffset);
+			out.writeLong(documentsOffset);
+		}
+	}
+
+	/**
+	 * Returns the number of words stored in the segment.
+	 * @return number of words
+	 */
+	public int words() {
+		return words;
+	}
+
+	/**
+	 * Gets the table of documents found in this segment
+	 * @return table of document ids
+	 */
+	public DocumentTable getDocuments() {
+		return documents;
+	}
+
+	/**
+	 * Gets a list of exact search results from a list of queries
+	 * @param queries - list of queries
+	 * @return list of exact search results
+	 */
+	public List<SearchResult> exactSearch(List<String> queries) {
+		return exactSearch(queries, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Gets the best exact search results from a list of queries
+	 * @param queries - list of queries
+	 * @param k - maximum number of results to return
+	 * @return list of at most k exact search results
+	 */
+	public List<SearchResult> exactSearch(List<String> queries, int k) {
+		//map to temporarily keep a document to search result in case of replacing previous results
+		HashMap<Integer, SearchResult> results = new HashMap<Integer, SearchResult>();
+		//each search gets its own view so searches can run at the same time
+		ByteBuffer view = buffer.duplicate();
+
+		//look up each unique query in the word table
+		for (String query : new TreeSet<String>(queries)) {
+			int found = find(query);
+			if (found < words && compare(found, query, false) == 0)
+				addResults(view, found, results);
+		}
+
+		return SearchResult.top(results.values(), k);
+	}
+
+	/**
+	 * Gets a list of partial search results from a list of queries
+	 * @param queries - list of queries
+	 * @return list of partial search results
+	 */
+	public List<SearchResult> partialSearch(List<String> queries) {
+		return partialSearch(queries, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Gets the best partial search results from a list of queries
+	 * @param queries - list of queries
+	 * @param k - maximum number of results to return
+	 * @return list of at most k partial search results
+	 */
+	public List<SearchResult> partialSearch(List<String> queries, int k) {
+		//map to temporarily keep a document to search result in case of replacing previous results
+		HashMap<Integer, SearchResult> results = new HashMap<Integer, SearchResult>();
+		//each search gets its own view so searches can run at the same time
+		ByteBuffer view = buffer.duplicate();
+		//last prefix we actually searched for
+		String last = null;
+
+		//iterate through the prefixes in sorted order, skipping any covered by a shorter one
+		for (String prefix : new TreeSet<String>(queries)) {
+			if (last != null && prefix.startsWith(last))
+				continue;
+			last = prefix;
+
+			//start at the first word that could match and stop at the first one that doesn't
+			for (int i = find(prefix); i < words && compare(i, prefix, true) == 0; i++)
+				addResults(view, i, results);
+		}
+
+		return SearchResult.top(results.values(), k);
+	}
+
+	/**
+	 * Closes the file behind this segment. The segment can't be searched afterwards.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Finds the first word in the word table that is not less than the query.
+	 * @param query - word to look for
+	 * @return position of that word in the word table, or the number of words if there is none
+	 */
+	private int find(String query) {
+		int low = 0;
+		int high = words;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (compare(middle, query, false) < 0)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Compares a stored word to a query the same way {@link String#compareTo(String)} would.
+	 * @param word - position of the word in the word table
+	 * @param query - query to compare to
+	 * @param prefix - if true, a word that starts with the query counts as equal
+	 * @return negative, zero or positive if the word is less than, equal to or greater than the query
+	 */
+	private int compare(int word, String query, boolean prefix) {
+		int offset = (int) buffer.getLong(table + word * ENTRY);
+		int length = buffer.getInt(offset);
+		offset += 4;
+
+		int shared = Math.min(length, query.length());
+		for (int i = 0; i < shared; i++) {
+			char c = buffer.getChar(offset + i * 2);
+			if (c != query.charAt(i))
+				return c - query.charAt(i);
+		}
+
+		if (prefix && length >= query.length())
+			return 0;
+		return length - query.length();
+	}
+
+	/**
+	 * Merges the postings of a single word into a map of search results
+	 * @param view - view of the buffer to read with
+	 * @param word - position of the word in the word table
+	 * @param results - map of document ids to the search results found so far
+	 */
+	private void addResults(ByteBuffer view, int word, HashMap<Integer, SearchResult> results) {
+		view.position((int) buffer.getLong(table + word * ENTRY + 8));
+		int count = view.getInt();
+		int document = 0;
+
+		for (int i = 0; i < count; i++) {
+			document += readVarInt(view);
+			int frequency = readVarInt(view);
+			int length = readVarInt(view);
+			int end = view.position() + length;
+			//the first position is stored as-is, so we don't need to decode the rest
+			int pos = readVarInt(view);
+			view.position(end);
+
+			SearchResult prev = results.get(document);
+			if (prev != null) {
+				prev.setFrequency(prev.getFrequency() + frequency);
+				if (pos < prev.getPos())
+					prev.setPos(pos);
+			} else {
+				results.put(document, new SearchResult(frequency, pos, document, documents));
+			}
+		}
+	}
+
+	/**
+	 * Reads a variable-length int written by {@link #writeVarInt(DataOutputStream, int)}.
+	 * @param view - buffer to read from
+	 * @return value that was read
+	 */
+	private static int readVarInt(ByteBuffer view) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = view.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	/**
+	 * Writes an int 7 bits at a time, setting the high bit if there's more to come.
+	 * @param out - stream to write to
+	 * @param value - value to write
+	 * @throws IOException - if the stream can't be written to
+	 */
+	private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/**
+	 * Keeps track of how many bytes were written so far, since
+	 * {@link DataOutputStream#size()} stops counting at 2GB, and refuses to
+	 * write a segment bigger than {@link #open(Path)} can map.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+		private long written;
+
+		public CountingOutputStream(OutputStream out) {
+			super(out);
+			this.written = 0;
+		}
+
+		/**
+		 * Makes sure there is still room in the segment.
+		 * @param len - number of bytes about to be written
+		 * @throws IOException - if they would make the segment too big
+		 */
+		private void reserve(int len) throws IOException {
+			if (written + len > LIMIT)
+				throw new IOException("Index is too big for one segment file, which can be at most "
+						+ LIMIT + " bytes. Split it into more segments with -shards.");
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			reserve(1);
+			out.write(b);
+			written++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			reserve(len);
+			out.write(b, off, len);
+			written += len;
+		}
+	}
+}
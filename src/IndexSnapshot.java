@@ -0,0 +1,195 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+/**
+ * Saves an {@link InvertedIndex} into a compact binary file and loads it back,
+ * so the index doesn't have to be rebuilt from html every time.
+ *
+ * The file is a single stream of:
+ * <pre>
+ * header      magic, version, number of documents
+ * documents   every path in UTF-8, in id order
+ * words       number of words, then for every word its UTF-8 bytes, number of
+ *             documents, and for every document its id, count, last position
+ *             and the positions as encoded by {@link PositionList}
+ * </pre>
+ *
+ * Positions are copied byte-for-byte in both directions, so loading never
+ * decodes or re-encodes a single position.
+ *
+ * @author Robert Macaibay
+ */
+public class IndexSnapshot {
+	//marks a file as a snapshot
+	private static final int MAGIC = 0x424F4D49;
+	//version of the file layout
+	private static final int VERSION = 1;
+	//size of the stream buffers
+	private static final int BUFFER = 1 << 16;
+
+	/**
+	 * Saves an index into a snapshot file, replacing the file if it already exists.
+	 * @param index - index to save
+	 * @param path - path to the snapshot file
+	 * @throws IOException - if the file can't be written
+	 */
+	public static void save(InvertedIndex index, Path path) throws IOException {
+		DocumentTable documents = index.getDocuments();
+		Set<String> words = index.words();
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), BUFFER))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			//write every document path so ids can be handed out again when loading
+			int count = documents.size();
+			out.writeInt(count);
+			for (int i = 0; i < count; i++)
+				writeString(out, documents.getPath(i));
+
+			//write every word and its postings
+			out.writeInt(words.size());
+			for (String word : words) {
+				PathIndex pi = index.get(word);
+
+				writeString(out, word);
+				out.writeInt(pi.paths());
+				for (Integer document : pi.documents()) {
+					PositionList positions = pi.getPositions(document);
+					out.writeInt(document);
+					out.writeInt(positions.size());
+					out.writeInt(positions.last());
+					out.writeInt(positions.bytes());
+					positions.writeBytes(out);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Loads a snapshot file into an index. The index is normally empty; if it
+	 * isn't, the loaded positions are merged with the positions it already has.
+	 * @param path - path to the snapshot file
+	 * @param index - index to add the snapshot to
+	 * @throws IOException - if the file can't be read or isn't a snapshot
+	 */
+	public static void load(Path path, InvertedIndex index) throws IOException {
+		DocumentTable documents = index.getDocuments();
+		//build everything into a private index first so a thread safe index only locks once
+		InvertedIndex loaded = new InvertedIndex(documents);
+
+		try (SnapshotReader in = new SnapshotReader(FileChannel.open(path, StandardOpenOption.READ))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("File is not a version " + VERSION + " index snapshot.");
+
+			//the ids in the file might not be the ids in our table, so map them
+			int[] remap = new int[in.readInt()];
+			for (int i = 0; i < remap.length; i++)
+				remap[i] = documents.add(in.readString());
+
+			int words = in.readInt();
+			for (int i = 0; i < words; i++) {
+				PathIndex pi = new PathIndex(documents);
+				loaded.index.put(in.readString(), pi);
+
+				int count = in.readInt();
+				for (int j = 0; j < count; j++) {
+					int document = remap[in.readInt()];
+					int size = in.readInt();
+					int last = in.readInt();
+					pi.putPositions(document, new PositionList(in.readBytes(), size, last));
+					//the last position of every word gives us back the length of the document
+					documents.updateLength(document, last);
+				}
+			}
+		}
+
+		index.addAll(loaded);
+	}
+
+	/**
+	 * Writes a String as its number of UTF-8 bytes followed by the bytes.
+	 * @param out - stream to write to
+	 * @param text - text to write
+	 * @throws IOException - if the stream can't be written to
+	 */
+	private static void writeString(DataOutputStream out, String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads the values written by {@link IndexSnapshot#save(InvertedIndex, Path)}
+	 * straight out of a reusable buffer, which is a lot faster than going
+	 * through a {@link java.io.DataInputStream} one int at a time.
+	 */
+	private static class SnapshotReader implements Closeable {
+		private final ReadableByteChannel channel;
+		private final ByteBuffer buffer;
+
+		public SnapshotReader(ReadableByteChannel channel) {
+			this.channel = channel;
+			this.buffer = ByteBuffer.allocate(BUFFER);
+			//start out empty so the first read fills the buffer
+			this.buffer.flip();
+		}
+
+		/**
+		 * Makes sure the buffer holds at least the number of bytes asked for.
+		 * @param bytes - number of bytes needed
+		 * @throws IOException - if the file ends early
+		 */
+		private void require(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes)
+				return;
+
+			//keep what we haven't read yet and fill up the rest
+			buffer.compact();
+			while (buffer.position() < bytes) {
+				if (channel.read(buffer) < 0)
+					throw new EOFException("Snapshot file ended early.");
+			}
+			buffer.flip();
+		}
+
+		public int readInt() throws IOException {
+			require(4);
+			return buffer.getInt();
+		}
+
+		public byte[] readBytes() throws IOException {
+			byte[] bytes = new byte[readInt()];
+			int read = 0;
+
+			//values bigger than the buffer are read in pieces
+			while (read < bytes.length) {
+				require(Math.min(BUFFER, bytes.length - read));
+				int length = Math.min(buffer.remaining(), bytes.length - read);
+				buffer.get(bytes, read, length);
+				read += length;
+			}
+			return bytes;
+		}
+
+		public String readString() throws IOException {
+			return new String(readBytes(), StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
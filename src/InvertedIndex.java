@@ -1,7 +1,13 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 /**
  * A nested map that holds the index of a word inside many html/htm files.
@@ -10,13 +16,47 @@ import java.util.TreeMap;
  */
 public class InvertedIndex {
 
-	protected TreeMap<String, PathIndex> index;
+	//how quickly repeating a word stops adding to a BM25 score
+	private static final float K1 = 1.2f;
+	//how much BM25 scores are normalized by document length
+	private static final float B = 0.75f;
+
+	protected NavigableMap<String, PathIndex> index;
+	
+	/**
+	 * Table of every document found in this index
+	 */
+	protected final DocumentTable documents;
+	
+	/**
+	 * Merged postings of prefixes partial searches keep coming back to
+	 */
+	protected final PrefixCache cache;
 	
 	/**
 	 * default constructor
 	 */
 	public InvertedIndex() {
-		index = new TreeMap<>();
+		this(new DocumentTable());
+	}
+	
+	/**
+	 * Creates an index that shares a table of document ids with other indexes
+	 * @param documents - table of document ids
+	 */
+	public InvertedIndex(DocumentTable documents) {
+		this(documents, new TreeMap<>());
+	}
+	
+	/**
+	 * Creates an index that stores its words in the given map, so subclasses can pick the kind of map
+	 * @param documents - table of document ids
+	 * @param index - empty map of words to use
+	 */
+	protected InvertedIndex(DocumentTable documents, NavigableMap<String, PathIndex> index) {
+		this.index = index;
+		this.documents = documents;
+		this.cache = new PrefixCache();
 	}
 	
 	/**
@@ -26,17 +66,28 @@ public class InvertedIndex {
 	 * @param pos - position of word in that file
 	 */
 	public void add(String word, String path, int pos) {
+		int document = documents.add(path);
+		documents.updateLength(document, pos);
+		add(word, document, pos);
+		cache.invalidate();
+	}
+	
+	/**
+	 * Adds a specific word to a specific document and position.
+	 * @param word - word found
+	 * @param document - id of the html/htm file
+	 * @param pos - position of word in that file
+	 */
+	protected void add(String word, int document, int pos) {
+		//grab old PathIndex map
+		PathIndex pi = index.get(word);
 		//checks if there is at least an existing PathIndex map in the map for that word
-		if (index.get(word) == null) {
-			//puts a new PathIndex map with the specified path and position for that word
-			index.put(word, new PathIndex(path, pos));
+		if (pi == null) {
+			//puts a new PathIndex map with the specified document and position for that word
+			index.put(word, new PathIndex(documents, document, pos));
 		} else {
-			//grab old PathIndex map
-			PathIndex pi = index.get(word);
 			//update PathIndex map
-			pi.add(path, pos);
-			//update InvertedIndex map
-			index.put(word, pi);
+			pi.add(document, pos);
 		}
 	}
 	
@@ -60,9 +111,74 @@ public class InvertedIndex {
 	 * @param start - starting position
 	 */
 	public void addAll(String[] words, String path, int start) {
+		//only look up the id of the path once
+		int document = documents.add(path);
+		if (start <= words.length)
+			documents.updateLength(document, words.length);
 		for (int i = start; i <= words.length; i++) {
-			add(words[i - 1], path, i);
+			add(words[i - 1], document, i);
+		}
+		cache.invalidate();
+	}
+	
+	/**
+	 * Adds the next batch of words of a document, so a document can be added a
+	 * few words at a time while it's being read. The first word of the batch
+	 * goes right after the words of that document added so far.
+	 *
+	 * @param words - array holding the batch
+	 * @param count - number of words in the batch, starting at the beginning of the array
+	 * @param path - path to html/htm file
+	 * @param offset - number of words of the document added before this batch
+	 */
+	public void addBatch(String[] words, int count, String path, int offset) {
+		//only look up the id of the path once
+		int document = documents.add(path);
+		if (count > 0)
+			documents.updateLength(document, offset + count);
+		for (int i = 0; i < count; i++) {
+			add(words[i], document, offset + i + 1);
+		}
+		cache.invalidate();
+	}
+	
+	/**
+	 * Merges every word of another index into this one. Both indexes have to
+	 * share the same document table, and the other index shouldn't be used
+	 * afterwards since its postings are moved rather than copied. Frozen and
+	 * sharded indexes hand out copies of theirs, see {@link #postings()}.
+	 *
+	 * @param other - index to merge into this one
+	 */
+	public void addAll(InvertedIndex other) {
+		//document ids only mean the same thing if the table is the same
+		if (other.documents != documents)
+			throw new IllegalArgumentException("Indexes must share the same document table to be merged.");
+		
+		NavigableMap<String, PathIndex> postings = other.postings();
+		//an empty index can copy the other sorted map in one linear pass
+		if (index.isEmpty()) {
+			index.putAll(postings);
+		} else {
+			for (Map.Entry<String, PathIndex> entry : postings.entrySet()) {
+				PathIndex pi = index.get(entry.getKey());
+				//words we don't have yet can just take the other path index
+				if (pi == null)
+					index.put(entry.getKey(), entry.getValue());
+				else
+					pi.addAll(entry.getValue());
+			}
 		}
+		cache.invalidate();
+	}
+	
+	/**
+	 * Returns a read-only view of the words in this index in sorted order.
+	 * Nothing is copied, so the view shouldn't be used while the index is changing.
+	 * @return sorted view of words
+	 */
+	public NavigableSet<String> words() {
+		return Collections.unmodifiableNavigableSet(index.navigableKeySet());
 	}
 	
 	/**
@@ -83,59 +199,82 @@ public class InvertedIndex {
 	 * @return Mapping of paths and positions for a word
 	 */
 	public PathIndex get(String word) {
+		return find(word);
+	}
+	
+	/**
+	 * Finds the PathIndex of a word without taking any lock, so searches can
+	 * look words up while they already hold one
+	 * @param word - specified word to find
+	 * @return Mapping of paths and positions for a word, or null if it isn't in the index
+	 */
+	protected PathIndex find(String word) {
 		return index.get(word);
 	}
 	
+	/**
+	 * Copies this index into a read-only {@link FrozenInvertedIndex}, whose words
+	 * take a lot less memory and whose prefixes are looked up as ranges. The path
+	 * indexes are shared rather than copied, so nothing may add to this index
+	 * after it is frozen.
+	 * @return frozen copy of this index
+	 */
+	public InvertedIndex freeze() {
+		return new FrozenInvertedIndex(documents, index);
+	}
+	
+	/**
+	 * Gets every word of this index along with its path index, for merging
+	 * into another index. Indexes that don't keep their words in the sorted
+	 * map have to hand out a copy of them instead.
+	 * @return sorted map of words to path indexes
+	 */
+	protected NavigableMap<String, PathIndex> postings() {
+		return index;
+	}
+	
+	/**
+	 * Returns how many documents BM25 should think this index has. Indexes that
+	 * only hold some of the documents in their table count just their own.
+	 * @return number of documents in this index
+	 */
+	protected int documentCount() {
+		return documents.size();
+	}
+	
+	/**
+	 * Gets the table of documents found in this index
+	 * @return table of document ids
+	 */
+	public DocumentTable getDocuments() {
+		return documents;
+	}
+	
 	/**
 	 * Gets a list of exact search results from a list of queries
 	 * @param queries - list of queries
 	 * @return list of exact search results
 	 */
 	public List<SearchResult> exactSearch(List<String> queries) {
-		//map to temporarily keep a path to search result in case of replacing previous results
-		TreeMap<String, SearchResult> results = new TreeMap<String, SearchResult>();
-		//list of search results for output
-		List<SearchResult> out = new ArrayList<SearchResult>();
-		
-		//iterate through the words in the index key set
-		for (String word : copyWords()) {
-			//check if any of the queries contains the word
-			if (queries.contains(word)) {
-				//grab the path index of that word
-				PathIndex pi = get(word);
-				//iterate through the paths that contain that word
-				for (String p : pi.copyPaths()) {
-					//grab the list of positions that appeared in that path
-					List<Integer> positions = pi.copyPositions(p);
-					//checks if we had a previous search result of the word
-					if (results.containsKey(p)) {
-						//grab the previous results
-						SearchResult prev = results.get(p);
-						//calculate total frequency
-						int totalFreq = prev.getFrequency() + positions.size();
-						//check which is the earlier instance of the word
-						int initPos = (positions.get(0) < prev.getPos()) ? positions.get(0) : prev.getPos();
-						//create a new search result instance
-						SearchResult sr = new SearchResult(totalFreq, initPos, p);
-						//store that
-						results.put(p, sr);
-					} else {
-						//create a new search result instance
-						SearchResult sr = new SearchResult(positions.size(), positions.get(0), p);
-						//store that
-						results.put(p, sr);
-					}
-				}
-			}
-		}
+		return exactSearch(queries, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Gets the best exact search results from a list of queries
+	 * @param queries - list of queries
+	 * @param k - maximum number of results to return
+	 * @return list of at most k exact search results
+	 */
+	public List<SearchResult> exactSearch(List<String> queries, int k) {
+		//map to temporarily keep a document to search result in case of replacing previous results
+		HashMap<Integer, SearchResult> results = new HashMap<Integer, SearchResult>();
 		
-		//iterate through our map and add it to the list
-		for (String p : results.keySet())
-			out.add(results.get(p));
-
-		//sort the output list
-		Collections.sort(out);
-		return out;
+		//merge the paths of every matching word into our results
+		for (PathIndex pi : matching(queries, false))
+			addResults(pi, results, null);
+		
+		//only sort the results we actually need
+		return SearchResult.top(results.values(), k);
 	}
 	
 	/**
@@ -144,49 +283,650 @@ public class InvertedIndex {
 	 * @return list of partial search results
 	 */
 	public List<SearchResult> partialSearch(List<String> queries) {
-		//map to temporarily keep a path to search result in case of replacing previous results
-		TreeMap<String, SearchResult> results = new TreeMap<String, SearchResult>();
-		//list of search results for output
-		List<SearchResult> out = new ArrayList<SearchResult>();
-		
-		//iterate through list of words in our index
-		for (String word : copyWords()) {
-			//check if there is any matches where one of the words start with a certain query
-			if (queries.stream().anyMatch((s) -> word.startsWith(s))) {
-				//grab the path index for that word
-				PathIndex pi = get(word);
-				//iterate through the positions the word is found in that path
-				for (String p : pi.copyPaths()) {
-					//save a list of those positions
-					List<Integer> positions = pi.copyPositions(p);
-					//checks if we had a previous search result of the word
-					if (results.containsKey(p)) {
-						//grab the previous results
-						SearchResult prev = results.get(p);
-						//calculate total frequency
-						int totalFreq = prev.getFrequency() + positions.size();
-						//check which is the earlier instance of the word
-						int initPos = (positions.get(0) < prev.getPos()) ? positions.get(0) : prev.getPos();
-						//create a new search result instance
-						SearchResult sr = new SearchResult(totalFreq, initPos, p);
-						//store that
-						results.put(p, sr);
-					} else {
-						//create a new search result instance
-						SearchResult sr = new SearchResult(positions.size(), positions.get(0), p);
-						//store that
-						results.put(p, sr);
+		return partialSearch(queries, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Gets the best partial search results from a list of queries
+	 * @param queries - list of queries
+	 * @param k - maximum number of results to return
+	 * @return list of at most k partial search results
+	 */
+	public List<SearchResult> partialSearch(List<String> queries, int k) {
+		//map to temporarily keep a document to search result in case of replacing previous results
+		HashMap<Integer, SearchResult> results = new HashMap<Integer, SearchResult>();
+		//grab the version before reading anything so nothing read during a change gets cached
+		long version = cache.version();
+		
+		for (String prefix : prefixes(queries)) {
+			//a prefix we've expanded before already has its postings merged
+			PrefixCache.Expansion expansion = cache.get(prefix, version);
+			if (expansion == null) {
+				List<PathIndex> words = expand(prefix);
+				//a single word is already merged, so there is nothing worth caching
+				if (words.size() == 1) {
+					addResults(words.get(0), results, null);
+					continue;
+				}
+				expansion = merge(words);
+				cache.put(prefix, version, expansion);
+			}
+			addResults(expansion, results);
+		}
+		
+		//only sort the results we actually need
+		return SearchResult.top(results.values(), k);
+	}
+	
+	/**
+	 * Merges the postings of many words into the total count and earliest position per document
+	 * @param words - path indexes of the words
+	 * @return merged postings, in document order
+	 */
+	private PrefixCache.Expansion merge(List<PathIndex> words) {
+		//ids are handed out densely, so arrays indexed by id beat a map
+		int size = documents.size();
+		int[] counts = new int[size];
+		int[] firsts = new int[size];
+		int[] found = new int[16];
+		int n = 0;
+		
+		for (PathIndex pi : words) {
+			PathIndex.DocumentCursor cursor = pi.cursor();
+			while (cursor.next()) {
+				int document = cursor.document();
+				//a document could have been added to the table after we sized the arrays
+				if (document >= counts.length) {
+					size = Math.max(document + 1, counts.length * 2);
+					counts = Arrays.copyOf(counts, size);
+					firsts = Arrays.copyOf(firsts, size);
+				}
+				
+				if (counts[document] == 0) {
+					if (n == found.length)
+						found = Arrays.copyOf(found, n * 2);
+					found[n++] = document;
+					firsts[document] = cursor.first();
+				} else if (cursor.first() < firsts[document]) {
+					firsts[document] = cursor.first();
+				}
+				counts[document] += cursor.count();
+			}
+		}
+		
+		int[] ids = Arrays.copyOf(found, n);
+		Arrays.sort(ids);
+		int[] totals = new int[n];
+		int[] earliest = new int[n];
+		for (int i = 0; i < n; i++) {
+			totals[i] = counts[ids[i]];
+			earliest[i] = firsts[ids[i]];
+		}
+		return new PrefixCache.Expansion(ids, totals, earliest);
+	}
+	
+	/**
+	 * Gets the cache of prefix expansions partial searches use
+	 * @return prefix cache of this index
+	 */
+	public PrefixCache getPrefixCache() {
+		return cache;
+	}
+	
+	/**
+	 * Gets a list of search results ranked by BM25 from a list of queries
+	 * @param queries - list of queries
+	 * @param partial - whether queries match every word they are a prefix of
+	 * @return list of ranked search results
+	 */
+	public List<SearchResult> rankedSearch(List<String> queries, boolean partial) {
+		return rankedSearch(queries, partial, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Gets the best search results ranked by BM25 from a list of queries. Rare
+	 * words count for more than common ones, and repeating a word in a long
+	 * document counts for less than in a short one. Results with the same score
+	 * fall back to the usual frequency, position and path order.
+	 * 
+	 * Only the best k results are kept, so once the highest score the words
+	 * we haven't gotten to yet could add is less than the k-th best score so
+	 * far (MaxScore), new documents can't make it anymore. From then on only
+	 * the documents that still could are scored, and words found in far more
+	 * documents than that are looked up instead of walked.
+	 * 
+	 * @param queries - list of queries
+	 * @param partial - whether queries match every word they are a prefix of
+	 * @param k - maximum number of results to return
+	 * @return list of at most k ranked search results
+	 */
+	public List<SearchResult> rankedSearch(List<String> queries, boolean partial, int k) {
+		List<PathIndex> matches = matching(queries, partial);
+		//length part of every document's score, worked out once for the whole table
+		float[] norms = documents.norms(K1, B);
+		int n = matches.size();
+		
+		//work out the highest score every word could give a document, packed with the word so they sort as longs
+		float[] bound = new float[n];
+		long[] order = new long[n];
+		for (int t = 0; t < n; t++) {
+			PathIndex pi = matches.get(t);
+			bound[t] = idf(pi) * pi.maxScore(norms, K1);
+			//scores are never negative, so their bits sort the same way the scores do
+			order[t] = (long) Float.floatToIntBits(bound[t]) << 32 | t;
+		}
+		
+		//scores are always added from the word worth the most down, so every search sums them the same way
+		Arrays.sort(order);
+		List<PathIndex> terms = new ArrayList<PathIndex>(n);
+		float[] bounds = new float[n];
+		for (int t = 0; t < n; t++) {
+			int word = (int) order[n - 1 - t];
+			terms.add(matches.get(word));
+			bounds[t] = bound[word];
+		}
+		
+		//nothing can be skipped when every result is wanted
+		if (k >= documents.size()) {
+			HashMap<Integer, SearchResult> results = new HashMap<Integer, SearchResult>();
+			for (PathIndex pi : terms)
+				addResults(pi, results, norms);
+			return SearchResult.top(results.values(), k);
+		}
+		
+		if (k <= 0 || n == 0)
+			return new ArrayList<SearchResult>();
+		
+		//idf of every word and the highest score all of the words after it could still add
+		float[] idf = new float[n];
+		float[] remaining = new float[n + 1];
+		for (int t = 0; t < n; t++)
+			idf[t] = idf(terms.get(t));
+		for (int t = n - 1; t >= 0; t--) {
+			//a little slack so rounding can't make a document go over its highest score
+			remaining[t] = remaining[t + 1] + bounds[t] * 1.0001f;
+		}
+		
+		//score, count and first position of every document so far by id, plus the ones we've seen
+		int size = documents.size();
+		float[] scores = new float[size];
+		int[] counts = new int[size];
+		int[] firsts = new int[size];
+		int[] seen = new int[size];
+		int found = 0;
+		//documents that can still make it, or null while any document still could
+		boolean[] possible = null;
+		//postings walked so far and when to check the threshold again
+		long walked = 0;
+		long check = size;
+		
+		//words are added in the same order as the full search so every score is summed exactly the same
+		for (int t = 0; t < n; t++) {
+			PathIndex pi = terms.get(t);
+			
+			if (possible != null && found < pi.paths() / 8) {
+				//a few documents left and a long list of them, so look them up
+				for (int i = 0; i < found; i++) {
+					int document = seen[i];
+					PositionList positions = pi.getPositions(document);
+					if (positions != null) {
+						counts[document] += positions.size();
+						firsts[document] = Math.min(firsts[document], positions.first());
+						scores[document] += bm25(idf[t], positions.size(), norm(norms, document));
 					}
 				}
+				continue;
+			}
+			
+			PathIndex.DocumentCursor cursor = pi.cursor();
+			while (cursor.next()) {
+				int document = cursor.document();
+				//documents added after the search started, or that can't make it anymore, are left out
+				if (document >= size || (possible != null && !possible[document]))
+					continue;
+				
+				if (counts[document] == 0) {
+					seen[found++] = document;
+					firsts[document] = cursor.first();
+				} else {
+					firsts[document] = Math.min(firsts[document], cursor.first());
+				}
+				counts[document] += cursor.count();
+				scores[document] += bm25(idf[t], cursor.count(), norm(norms, document));
+			}
+			walked += pi.paths();
+			
+			//every so often see if the words left could still get a new document in
+			if (possible == null && found >= k && walked >= check) {
+				check = walked * 2;
+				float threshold = threshold(scores, seen, found, k);
+				if (remaining[t + 1] < threshold) {
+					//only keep the documents that could still catch up to the k-th best
+					possible = new boolean[size];
+					int kept = 0;
+					for (int i = 0; i < found; i++) {
+						int document = seen[i];
+						if (scores[document] + remaining[t + 1] >= threshold) {
+							possible[document] = true;
+							seen[kept++] = document;
+						}
+					}
+					found = kept;
+				}
 			}
 		}
 		
-		//iterate through our map and add it to the list
-		for (String p : results.keySet())
-			out.add(results.get(p));
-
-		//sort the output list
-		Collections.sort(out);
-		return out;
+		//only the documents that are left need results
+		List<SearchResult> results = new ArrayList<SearchResult>(found);
+		for (int i = 0; i < found; i++) {
+			int document = seen[i];
+			SearchResult result = new SearchResult(counts[document], firsts[document], document, documents);
+			result.addScore(scores[document]);
+			results.add(result);
+		}
+		return SearchResult.top(results, k);
+	}
+	
+	/**
+	 * Gets the k-th best score of the documents seen so far
+	 * @param scores - score of every document by id
+	 * @param seen - ids of the documents seen so far
+	 * @param found - number of documents seen so far
+	 * @param k - number of results wanted
+	 * @return k-th best score
+	 */
+	private static float threshold(float[] scores, int[] seen, int found, int k) {
+		//keep the best k scores in a min-heap so the k-th best is always on top
+		float[] heap = new float[k];
+		for (int i = 0; i < found; i++) {
+			float score = scores[seen[i]];
+			if (i < k) {
+				//move the new score up until its parent is lower
+				int j = i;
+				while (j > 0 && heap[(j - 1) >>> 1] > score) {
+					heap[j] = heap[(j - 1) >>> 1];
+					j = (j - 1) >>> 1;
+				}
+				heap[j] = score;
+			} else if (score > heap[0]) {
+				//replace the lowest and move it down until both children are higher
+				int j = 0;
+				while (true) {
+					int child = 2 * j + 1;
+					if (child >= k)
+						break;
+					if (child + 1 < k && heap[child + 1] < heap[child])
+						child++;
+					if (heap[child] >= score)
+						break;
+					heap[j] = heap[child];
+					j = child;
+				}
+				heap[j] = score;
+			}
+		}
+		return heap[0];
+	}
+	
+	/**
+	 * Gets the BM25 length norm of a document
+	 * @param norms - BM25 length norm of every document
+	 * @param document - id of the document
+	 * @return norm of that document
+	 */
+	private static float norm(float[] norms, int document) {
+		//a document added after the norms were worked out is treated as average length
+		return document < norms.length ? norms[document] : K1;
+	}
+	
+	/**
+	 * Gets how much rarer words count for in BM25, which only depends on how many documents have the word
+	 * @param pi - path index of the word
+	 * @return idf of the word
+	 */
+	private float idf(PathIndex pi) {
+		int n = documentCount();
+		int df = pi.paths();
+		return (float) Math.log(1 + (n - df + 0.5) / (df + 0.5));
+	}
+	
+	/**
+	 * Gets the BM25 score of a word found some number of times in a document
+	 * @param idf - idf of the word
+	 * @param tf - number of times the word is in the document
+	 * @param norm - BM25 length norm of the document
+	 * @return score of the word in that document
+	 */
+	static float bm25(float idf, int tf, float norm) {
+		return idf * tf * (K1 + 1) / (tf + norm);
+	}
+	
+	/**
+	 * Finds the path index of every word a list of queries matches, each word only once
+	 * @param queries - list of queries
+	 * @param partial - whether queries match every word they are a prefix of
+	 * @return path indexes of the matching words, in word order
+	 */
+	private List<PathIndex> matching(List<String> queries, boolean partial) {
+		List<PathIndex> found = new ArrayList<PathIndex>();
+		
+		if (!partial) {
+			//look up each unique query directly instead of scanning every word in the index
+			for (String query : new TreeSet<String>(queries)) {
+				PathIndex pi = find(query);
+				if (pi != null)
+					found.add(pi);
+			}
+			return found;
+		}
+		
+		for (String prefix : prefixes(queries))
+			found.addAll(expand(prefix));
+		return found;
+	}
+	
+	/**
+	 * Drops every query that another query is a prefix of, since the shorter one
+	 * already matches every word the longer one would
+	 * @param queries - list of queries
+	 * @return unique prefixes that never match the same word, in sorted order
+	 */
+	private static List<String> prefixes(List<String> queries) {
+		List<String> prefixes = new ArrayList<String>();
+		//last prefix we actually kept
+		String last = null;
+		
+		//iterate through the prefixes in sorted order so duplicates and longer prefixes come right after shorter ones
+		for (String prefix : new TreeSet<String>(queries)) {
+			//every word starting with this prefix also starts with the last one, so we already have them
+			if (last != null && prefix.startsWith(last))
+				continue;
+			last = prefix;
+			prefixes.add(prefix);
+		}
+		return prefixes;
+	}
+	
+	/**
+	 * Finds the path index of every word that starts with a prefix
+	 * @param prefix - prefix to look for
+	 * @return path indexes of the matching words, in word order
+	 */
+	protected List<PathIndex> expand(String prefix) {
+		List<PathIndex> found = new ArrayList<PathIndex>();
+		
+		//seek straight to the first word that could start with the prefix
+		for (Map.Entry<String, PathIndex> entry : index.tailMap(prefix, true).entrySet()) {
+			//the words are sorted, so the first one that doesn't match ends the range
+			if (!entry.getKey().startsWith(prefix))
+				break;
+			found.add(entry.getValue());
+		}
+		return found;
+	}
+	
+	/**
+	 * Gets a list of search results for documents that contain every query
+	 * @param queries - list of queries
+	 * @return list of conjunctive search results
+	 */
+	public List<SearchResult> conjunctiveSearch(List<String> queries) {
+		return conjunctiveSearch(queries, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Gets the best search results for documents that contain every query.
+	 * Only documents found in every word's postings are ever looked at.
+	 * @param queries - list of queries
+	 * @param k - maximum number of results to return
+	 * @return list of at most k conjunctive search results
+	 */
+	public List<SearchResult> conjunctiveSearch(List<String> queries, int k) {
+		//list of search results for output
+		List<SearchResult> results = new ArrayList<SearchResult>();
+		//repeating a word doesn't change which documents have all of them
+		List<String> words = new ArrayList<String>(new TreeSet<String>(queries));
+		PathIndex[] postings = lookup(words);
+		if (postings == null)
+			return results;
+		Integer[] order = byDocuments(postings);
+		
+		for (int document = intersect(postings, order, 0); document >= 0; document = intersect(postings, order, document + 1)) {
+			//add up the counts and keep the earliest position of every word
+			int frequency = 0;
+			int pos = Integer.MAX_VALUE;
+			for (PathIndex pi : postings) {
+				PositionList positions = pi.getPositions(document);
+				frequency += positions.size();
+				pos = Math.min(pos, positions.first());
+			}
+			results.add(new SearchResult(frequency, pos, document, documents));
+		}
+		
+		//only sort the results we actually need
+		return SearchResult.top(results, k);
+	}
+	
+	/**
+	 * Gets a list of phrase search results from a list of queries
+	 * @param queries - words of the phrase, in order
+	 * @return list of phrase search results
+	 */
+	public List<SearchResult> phraseSearch(List<String> queries) {
+		return phraseSearch(queries, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Gets the best phrase search results from a list of queries. A document
+	 * only matches if it has every word right after the one before it, and its
+	 * count is the number of times the whole phrase shows up.
+	 * @param queries - words of the phrase, in order
+	 * @param k - maximum number of results to return
+	 * @return list of at most k phrase search results
+	 */
+	public List<SearchResult> phraseSearch(List<String> queries, int k) {
+		//list of search results for output
+		List<SearchResult> results = new ArrayList<SearchResult>();
+		PathIndex[] postings = lookup(queries);
+		if (postings == null)
+			return results;
+		Integer[] order = byDocuments(postings);
+		
+		//positions of every word in the document being checked
+		int[][] positions = new int[postings.length][];
+		
+		for (int document = intersect(postings, order, 0); document >= 0; document = intersect(postings, order, document + 1)) {
+			//every word is in this document, so check if they are next to each other
+			for (int i = 0; i < postings.length; i++)
+				positions[i] = postings[i].getPositions(document).toArray();
+			addPhrase(positions, order, document, results);
+		}
+		
+		//only sort the results we actually need
+		return SearchResult.top(results, k);
+	}
+	
+	/**
+	 * Grabs the path index of every word
+	 * @param words - words to look up
+	 * @return path index of every word, or null if there are no words or one of them is missing
+	 */
+	private PathIndex[] lookup(List<String> words) {
+		if (words.isEmpty())
+			return null;
+		
+		PathIndex[] postings = new PathIndex[words.size()];
+		for (int i = 0; i < postings.length; i++) {
+			postings[i] = find(words.get(i));
+			//a missing word means nothing can have all of them
+			if (postings[i] == null)
+				return null;
+		}
+		return postings;
+	}
+	
+	/**
+	 * Orders words from the fewest documents to the most, so the rarest one
+	 * does most of the skipping when intersecting
+	 * @param postings - path index of every word
+	 * @return positions in postings, rarest first
+	 */
+	private static Integer[] byDocuments(PathIndex[] postings) {
+		Integer[] order = new Integer[postings.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, (a, b) -> postings[a].paths() - postings[b].paths());
+		return order;
+	}
+	
+	/**
+	 * Finds the next document that every word shows up in. Each word skips
+	 * straight to the document instead of walking its postings, and we start
+	 * over from the rarest word whenever one of them skips past it.
+	 * @param postings - path index of every word
+	 * @param order - positions in postings, rarest first
+	 * @param document - smallest document id to look for
+	 * @return id of the next document with every word, or -1 if there are no more
+	 */
+	private static int intersect(PathIndex[] postings, Integer[] order, int document) {
+		int matched = 0;
+		while (matched < order.length) {
+			int next = postings[order[matched]].nextDocument(document);
+			if (next < 0)
+				return -1;
+			if (next != document) {
+				document = next;
+				//if the rarest word skipped ahead it already has the new document
+				matched = matched == 0 ? 1 : 0;
+			} else {
+				matched++;
+			}
+		}
+		return document;
+	}
+	
+	/**
+	 * Finds every place a phrase starts in a single document and adds it as a search result
+	 * @param positions - sorted positions of every word of the phrase in the document
+	 * @param order - words of the phrase in the order they should be checked
+	 * @param document - id of the document
+	 * @param results - list of search results to add to
+	 */
+	private void addPhrase(int[][] positions, Integer[] order, int document, List<SearchResult> results) {
+		//every start of the phrase has to line up with the first word we check, so it picks the candidates
+		int first = order[0];
+		int[] starts = new int[positions[first].length];
+		for (int i = 0; i < starts.length; i++)
+			starts[i] = positions[first][i] - first;
+		int found = starts.length;
+		
+		//throw out any candidate where another word isn't at the right offset
+		for (int t = 1; t < order.length && found > 0; t++) {
+			int term = order[t];
+			int[] want = positions[term];
+			int kept = 0;
+			int from = 0;
+			for (int i = 0; i < found; i++) {
+				//the candidates only go up, so each search starts where the last one stopped
+				from = gallop(want, from, starts[i] + term);
+				if (from == want.length)
+					break;
+				if (want[from] == starts[i] + term)
+					starts[kept++] = starts[i];
+			}
+			found = kept;
+		}
+		
+		if (found > 0)
+			results.add(new SearchResult(found, starts[0], document, documents));
+	}
+	
+	/**
+	 * Finds the first position that is not less than the target by taking bigger
+	 * and bigger steps and then binary searching the last step.
+	 * @param positions - sorted positions
+	 * @param from - where to start looking
+	 * @param target - position to look for
+	 * @return index of the first position not less than the target, or the length if there is none
+	 */
+	private static int gallop(int[] positions, int from, int target) {
+		//step forward 1, 2, 4, ... until we pass the target
+		int step = 1;
+		int low = from;
+		int high = from;
+		while (high < positions.length && positions[high] < target) {
+			low = high + 1;
+			high = from + step;
+			step <<= 1;
+		}
+		high = Math.min(high, positions.length);
+		
+		//the target is somewhere between the last two steps
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (positions[middle] < target)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+	
+	/**
+	 * Merges the already merged postings of a prefix into a map of search results
+	 * @param expansion - merged postings of every word starting with a prefix
+	 * @param results - map of document ids to the search results found so far
+	 */
+	private void addResults(PrefixCache.Expansion expansion, HashMap<Integer, SearchResult> results) {
+		for (int i = 0; i < expansion.size(); i++) {
+			int document = expansion.document(i);
+			//use the shared boxed id so looking it up doesn't box a new one
+			Integer key = documents.key(document);
+			SearchResult prev = results.get(key);
+			if (prev != null) {
+				prev.setFrequency(prev.getFrequency() + expansion.count(i));
+				if (expansion.first(i) < prev.getPos())
+					prev.setPos(expansion.first(i));
+			} else {
+				results.put(key, new SearchResult(expansion.count(i), expansion.first(i), document, documents));
+			}
+		}
+	}
+	
+	/**
+	 * Merges the documents and positions of a single word into a map of search results
+	 * @param pi - PathIndex of the matching word
+	 * @param results - map of document ids to the search results found so far
+	 * @param norms - BM25 length part of every document, or null if results aren't scored
+	 */
+	private void addResults(PathIndex pi, HashMap<Integer, SearchResult> results, float[] norms) {
+		//rare words are worth more, this only depends on how many documents have the word
+		float idf = norms != null ? idf(pi) : 0;
+		
+		//walk through the documents that contain that word without copying anything
+		PathIndex.DocumentCursor cursor = pi.cursor();
+		while (cursor.next()) {
+			int document = cursor.document();
+			//use the shared boxed id so looking it up doesn't box a new one
+			Integer key = documents.key(document);
+			//grab the previous results if we had any
+			SearchResult prev = results.get(key);
+			//checks if we had a previous search result of the word
+			if (prev != null) {
+				//calculate total frequency
+				prev.setFrequency(prev.getFrequency() + cursor.count());
+				//check which is the earlier instance of the word
+				if (cursor.first() < prev.getPos())
+					prev.setPos(cursor.first());
+			} else {
+				//create a new search result instance and store that
+				prev = new SearchResult(cursor.count(), cursor.first(), document, documents);
+				results.put(key, prev);
+			}
+			
+			if (norms != null) {
+				prev.addScore(bm25(idf, cursor.count(), norm(norms, document)));
+			}
+		}
 	}
 }
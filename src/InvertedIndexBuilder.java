@@ -1,12 +1,7 @@
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.StringReader;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Convenience class to build a {@link InvertedIndex} from a HTML file.
@@ -23,132 +18,63 @@ public class InvertedIndexBuilder {
 	 * @throws IOException - we're throwing IOExceptions because we're reading files
 	 */
 	public static void buildIndex(Path path, InvertedIndex index) throws IOException {
-		try {
-			byte[] bytes = Files.readAllBytes(path);
-			String html = new String(bytes, StandardCharsets.UTF_8);
-
-			//create a single String object of a cleaned html/htm file
-			html = HTMLCleaner.stripHtml(html);
-
-			try (BufferedReader reader = new BufferedReader(new StringReader(html));) {
-				String line = null;
-				//list of all the words found in a html/htm file
-				List<String> allWords = new ArrayList<String>();
-				
-				//iterate through the String and add each word into our InvertedIndex
-				while ((line = reader.readLine()) != null) {
-					//parse the line, separate each word into an array
-					String[] words = WordParser.parseWords(line);
-
-					//iterate through all the words and add them individually into the InvertedIndex
-					for (String word : words) {
-						//somehow the parser finds empty strings(?)... so lets just ignore those
-						if (word.equals(""))
-							continue;
-						//add the words to the list
-						allWords.add(word);
-					}
-				}
-				
-				//add all the words in one fell swoop
-				index.addAll(allWords.toArray(new String[allWords.size()]), path.toString());
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		//run every stage of the pipeline on this thread, so the file is added before we return
+		IndexPipeline pipeline = new IndexPipeline(index);
+		pipeline.add(path);
 	}
 	
-	public static class BuildTask implements Runnable {
-		private InvertedIndex index;
-		private Path path;
-		
-		public BuildTask(InvertedIndex index, Path path) {
-			this.index = index;
-			this.path = path;
-		}
-
-		@Override
-		public void run() {
-			try {
-				byte[] bytes = Files.readAllBytes(path);
-				String html = new String(bytes, StandardCharsets.UTF_8);
-
-				//create a single String object of a cleaned html/htm file
-				html = HTMLCleaner.stripHtml(html);
-
-				try (BufferedReader reader = new BufferedReader(new StringReader(html));) {
-					String line = null;
-					//list of all the words found in a html/htm file
-					List<String> allWords = new ArrayList<String>();
-					
-					//iterate through the String and add each word into our InvertedIndex
-					while ((line = reader.readLine()) != null) {
-						//parse the line, separate each word into an array
-						String[] words = WordParser.parseWords(line);
+	/**
+	 * Crawls a url for up to a maximum number of links and builds an index off
+	 * the html of every link found.
+	 *
+	 * @param seed - url to start crawling from
+	 * @param max - maximum number of links to crawl
+	 * @param queue - work queue to crawl and build with
+	 * @param index - inverted index to add words to, which has to be thread-safe
+	 */
+	public static void buildIndex(URL seed, int max, WorkQueue queue, InvertedIndex index) {
+		//split as many threads as the queue has between the stages
+		buildIndex(seed, max, queue, index, IndexPipeline.split(queue.size()));
+	}
 
-						//iterate through all the words and add them individually into the InvertedIndex
-						for (String word : words) {
-							//somehow the parser finds empty strings(?)... so lets just ignore those
-							if (word.equals(""))
-								continue;
-							//add the words to the list
-							allWords.add(word);
-						}
-					}
-					
-					//add all the words in one fell swoop
-					index.addAll(allWords.toArray(new String[allWords.size()]), path.toString());
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
+	/**
+	 * Crawls a url for up to a maximum number of links and builds an index off
+	 * the html of every link found, with the given number of threads for every
+	 * stage of the pipeline.
+	 *
+	 * @param seed - url to start crawling from
+	 * @param max - maximum number of links to crawl
+	 * @param queue - work queue to crawl and merge with
+	 * @param index - inverted index to add words to, which has to be thread-safe
+	 * @param stages - number of threads to fetch, extract, tokenize and insert with
+	 * @return the finished pipeline, so its {@link IndexPipeline#getStats()} can be shown
+	 */
+	public static IndexPipeline buildIndex(URL seed, int max, WorkQueue queue, InvertedIndex index, int[] stages) {
+		//get a preset size of max for an arraylist
+		ArrayList<URL> links = new ArrayList<URL>(max);
+		//parse for links
+		queue.execute(new LinkParser.LinkParseTask(links, queue, seed, seed, max));
+		queue.finish();
+		//build index off those links
+		IndexPipeline pipeline = new IndexPipeline(index, stages);
+		for (URL u : links)
+			pipeline.add(u);
+		pipeline.finish();
+		pipeline.shutdown();
+		//each inserter may have built its own private index, so merge them all in
+		mergePartials(index, queue);
+		return pipeline;
 	}
 	
-	public static class LinkBuildTask implements Runnable {
-		private InvertedIndex index;
-		private URL url;
-		
-		public LinkBuildTask(InvertedIndex index, URL url) {
-			this.index = index;
-			this.url = url;
-		}
-
-		@Override
-		public void run() {
-			try {
-				String html = null;
-				if ((html = LinkParser.fetchHtml(url)) != null) {
-					//create a single String object of a cleaned html/htm file
-					html = HTMLCleaner.stripHtml(html);
-
-					try (BufferedReader reader = new BufferedReader(new StringReader(html));) {
-						String line = null;
-						//list of all the words found in a html/htm file
-						List<String> allWords = new ArrayList<String>();
-
-						//iterate through the String and add each word into our InvertedIndex
-						while ((line = reader.readLine()) != null) {
-							//parse the line, separate each word into an array
-							String[] words = WordParser.parseWords(line);
-
-							//iterate through all the words and add them individually into the InvertedIndex
-							for (String word : words) {
-								//somehow the parser finds empty strings(?)... so lets just ignore those
-								if (word.equals(""))
-									continue;
-								//add the words to the list
-								allWords.add(word);
-							}
-						}
-
-						//add all the words in one fell swoop
-						index.addAll(allWords.toArray(new String[allWords.size()]), url.toString());
-					}
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
+	/**
+	 * Merges the private indexes a {@link IndexPipeline} created, if the index hands those out
+	 * @param index - index the pipeline added to
+	 * @param queue - work queue to merge with
+	 */
+	public static void mergePartials(InvertedIndex index, WorkQueue queue) {
+		if (index instanceof ShardedIndex)
+			((ShardedIndex) index).mergePartials(queue);
+		else if (index instanceof ThreadSafeInvertedIndex)
+			((ThreadSafeInvertedIndex) index).mergePartials(queue);
 	}
 }
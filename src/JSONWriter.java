@@ -1,8 +1,11 @@
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -29,52 +32,64 @@ public class JSONWriter {
 			//beginning bracket of JSON file
 			writer.write("{\n");
 
-			//grab the list of words from the InvertedIndex map
-			List<String> wordList = index.copyWords();
+			//table used to write the paths and sort the documents by them
+			DocumentTable documents = index.getDocuments();
+			//one cursor walks through every list of positions
+			PositionList.Cursor positions = new PositionList.Cursor();
+			//reused between words to sort the documents by path
+			Integer[] sorted = new Integer[16];
+			//reused to write numbers without making a String for each one
+			char[] digits = new char[11];
 			
-			//iterate through the list of words
-			for (int i = 0; i < wordList.size(); i++) {
+			//iterate through a view of the words instead of copying them
+			Iterator<String> words = index.words().iterator();
+			while (words.hasNext()) {
 				//grab current word
-				String word = wordList.get(i);
+				String word = words.next();
+				PathIndex pi = index.get(word);
 				
 				//write that word into the JSON file
-				writer.write("\t\"" + word + "\": {\n");
+				writer.write("\t\"");
+				writer.write(word);
+				writer.write("\": {\n");
 				
-				//grab the list of paths to html/htm files that the word can be found in
-				List<String> pathList = index.get(word).copyPaths();
+				//the documents are stored by id, but we write them sorted by path
+				if (sorted.length < pi.paths())
+					sorted = new Integer[Math.max(pi.paths(), sorted.length * 2)];
+				int count = 0;
+				for (Integer document : pi.documents())
+					sorted[count++] = document;
+				Arrays.sort(sorted, 0, count, (a, b) -> documents.compare(a, b));
 				
-				//iterate through the list of paths to html/htm files 
-				for (int j = 0; j < pathList.size(); j++) {
-					//grab current path found
-					String pathFound = pathList.get(j);
-					
+				//iterate through the documents
+				for (int j = 0; j < count; j++) {
 					//write that path found into the JSON file
-					writer.write("\t\t\"" + pathFound + "\": [\n");
-					
-					//grab the list of positions the word appears in that html/htm file
-					List<Integer> posList = index.get(word).copyPositions(pathFound);
+					writer.write("\t\t\"");
+					writer.write(documents.getPath(sorted[j]));
+					writer.write("\": [\n");
 					
-					//iterate through list of positions
-					for (int k = 0; k < posList.size(); k++) {
-						//grab current position
-						Integer pos = posList.get(k);
+					//iterate through the positions the word appears in that document
+					positions.reset(pi.getPositions(sorted[j]));
+					while (positions.hasNext()) {
+						writer.write("\t\t\t");
+						writeInt(writer, positions.next(), digits);
 						
 						//if we aren't at the end of the list, add a comma
-						if (k < posList.size() - 1)
-							writer.write("\t\t\t" + pos + ",\n");
+						if (positions.hasNext())
+							writer.write(",\n");
 						else
-							writer.write("\t\t\t" + pos + "\n");
+							writer.write("\n");
 					}
 					
 					//if we aren't at the end of the list, add a comma
-					if (j < pathList.size() - 1)
+					if (j < count - 1)
 						writer.write("\t\t],\n");
 					else
 						writer.write("\t\t]\n");
 				}
 				
 				//if we aren't at the end of the list, add a comma
-				if (i < wordList.size() - 1)
+				if (words.hasNext())
 					writer.write("\t},\n");
 				else
 					writer.write("\t}\n");
@@ -88,6 +103,36 @@ public class JSONWriter {
 		}
 	}
 	
+	/**
+	 * Writes an int in decimal without creating a String for it
+	 * @param writer - writer to write to
+	 * @param value - value to write
+	 * @param digits - buffer big enough for any int
+	 * @throws IOException - if the writer fails
+	 */
+	private static void writeInt(Writer writer, int value, char[] digits) throws IOException {
+		//the smallest int can't be negated, so let Java handle it
+		if (value == Integer.MIN_VALUE) {
+			writer.write(Integer.toString(value));
+			return;
+		}
+		
+		int start = digits.length;
+		boolean negative = value < 0;
+		if (negative)
+			value = -value;
+		
+		//fill the buffer from the end, one digit at a time
+		do {
+			digits[--start] = (char) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		
+		if (negative)
+			digits[--start] = '-';
+		writer.write(digits, start, digits.length - start);
+	}
+	
 	/**
 	 * Writes an inputted search results map into a file at the designated file path
 	 * @param index - InvertedIndex map of all the words found in certain html/htm files
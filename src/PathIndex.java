@@ -1,35 +1,92 @@
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
- * Data structure to store strings and their positions.
- * 
+ * Data structure to store documents and the positions a word was found in them.
+ * Documents are stored by their id in a {@link DocumentTable}.
+ *
  * @author Robert Macaibay
  */
 public class PathIndex {
 
 	/**
-	 * Stores a mapping of paths to the positions the paths were found.
+	 * Stores a mapping of document ids to the positions the word was found.
 	 */
-	protected TreeMap<String, TreeSet<Integer>> index;
+	protected NavigableMap<Integer, PositionList> index;
+
+	/**
+	 * Table used to turn paths into ids and back.
+	 */
+	protected final DocumentTable documents;
+
+	/**
+	 * Counts the changes to this word, so a highest score worked out while it
+	 * was changing is never used.
+	 */
+	private volatile int version;
+	private static final AtomicIntegerFieldUpdater<PathIndex> VERSION =
+			AtomicIntegerFieldUpdater.newUpdater(PathIndex.class, "version");
+
+	/**
+	 * Highest BM25 score any document could get from this word, only good while the version it was worked out at is current.
+	 */
+	private volatile Bound bound;
 
 	/**
 	 * Initializes the index.
+	 * @param documents - table of document ids shared by the whole inverted index
 	 */
-	public PathIndex() {
-		index = new TreeMap<>();
+	public PathIndex(DocumentTable documents) {
+		this(documents, new TreeMap<>());
 	}
-	
+
+	/**
+	 * Initializes the index with the given map, so subclasses can pick the kind of map.
+	 * @param documents - table of document ids shared by the whole inverted index
+	 * @param index - empty map of documents to use
+	 */
+	protected PathIndex(DocumentTable documents, NavigableMap<Integer, PositionList> index) {
+		this.index = index;
+		this.documents = documents;
+	}
+
 	/**
 	 * Initializes the index mapping but also adds a "starting" mapping
-	 * @param path - path to add initially
+	 * @param documents - table of document ids shared by the whole inverted index
+	 * @param document - id of the document to add initially
 	 * @param position - position to add initially
 	 */
-	public PathIndex(String path, int position) {
-		index = new TreeMap<>();
-		add(path, position);
+	public PathIndex(DocumentTable documents, int document, int position) {
+		this(documents);
+		add(document, position);
+	}
+
+	/**
+	 * Adds the document and the position it was found to the index.
+	 *
+	 * @param document - id of the document
+	 * @param position - position the word was found
+	 */
+	public void add(int document, int position) {
+		//grab the existing positions for that document
+		PositionList positions = index.get(document);
+
+		//if we don't have any yet, create and store them
+		if (positions == null) {
+			positions = new PositionList();
+			index.put(documents.key(document), positions);
+		}
+
+		//update the positions
+		positions.add(position);
+		changed();
 	}
 
 	/**
@@ -39,18 +96,68 @@ public class PathIndex {
 	 * @param position - position path was found
 	 */
 	public void add(String path, int position) {
-		//create a new set for the positions
-		TreeSet<Integer> set = new TreeSet<>();
-		
-		//if we do have an existing TreeSet for a particular path
-		//make that reference to it
-		if (index.get(path) != null)
-			set = index.get(path);
-		
-		//update TreeSet
-		set.add(position);
-		//update mapping
-		index.put(path, set);
+		add(documents.add(path), position);
+	}
+
+	/**
+	 * Adds every document and position of another index for the same word.
+	 * Documents we don't have yet take over the positions of the other index
+	 * instead of copying them, so the other index shouldn't be used afterwards.
+	 *
+	 * @param other - index to merge into this one, using the same document table
+	 */
+	public void addAll(PathIndex other) {
+		for (Map.Entry<Integer, PositionList> entry : other.index.entrySet()) {
+			PositionList positions = index.get(entry.getKey());
+
+			//most of the time documents only show up in one of the indexes
+			if (positions == null) {
+				index.put(entry.getKey(), entry.getValue());
+			} else {
+				for (int pos : entry.getValue().toArray())
+					positions.add(pos);
+			}
+		}
+		changed();
+	}
+
+	/**
+	 * Copies this index, positions and all, so the copy can be changed without
+	 * changing this one.
+	 *
+	 * @return copy using the same document table
+	 */
+	public PathIndex copy() {
+		PathIndex copy = new PathIndex(documents);
+		for (Map.Entry<Integer, PositionList> entry : index.entrySet())
+			copy.index.put(entry.getKey(), new PositionList(entry.getValue()));
+		return copy;
+	}
+
+	/**
+	 * Returns the number of times the word was found in a document.
+	 *
+	 * @param document - id of the document to look for
+	 * @return number of times the word was found
+	 */
+	public int count(int document) {
+		PositionList positions = index.get(document);
+		if (positions == null)
+			return 0;
+		return positions.size();
+	}
+
+	/**
+	 * Returns the first position the word was found at in a document.
+	 *
+	 * @param document - id of the document to look for
+	 * @return first position, or -1 if the word isn't in that document
+	 */
+	public int first(int document) {
+		PositionList positions = index.get(document);
+		if (positions == null)
+			return -1;
+		return positions.first();
 	}
 
 	/**
@@ -61,10 +168,7 @@ public class PathIndex {
 	 * @return number of times the path was found
 	 */
 	public int count(String path) {
-		TreeSet<Integer> set = index.get(path);
-		if (set == null)
-			return 0;
-		return set.size();
+		return count(documents.get(path));
 	}
 
 	/**
@@ -76,6 +180,16 @@ public class PathIndex {
 		return index.size();
 	}
 
+	/**
+	 * Tests whether the index contains the specified document.
+	 *
+	 * @param document - id of the document to look for
+	 * @return true if the document is stored in the index
+	 */
+	public boolean contains(int document) {
+		return index.containsKey(document);
+	}
+
 	/**
 	 * Tests whether the index contains the specified path.
 	 *
@@ -83,7 +197,88 @@ public class PathIndex {
 	 * @return true if the path is stored in the index
 	 */
 	public boolean contains(String path) {
-		return index.containsKey(path);
+		return contains(documents.get(path));
+	}
+
+	/**
+	 * Finds the first document in this index whose id is not less than the one
+	 * given, so a search can skip straight over documents it doesn't need.
+	 *
+	 * @param document - smallest id to look for
+	 * @return id of that document or -1 if there is none
+	 */
+	public int nextDocument(int document) {
+		Integer next = index.ceilingKey(document);
+		return next == null ? -1 : next;
+	}
+
+	/**
+	 * Gets the highest BM25 score, before multiplying by idf, that any document
+	 * gets from this word. It is worked out once and kept until the word or the
+	 * norms change, so searches can skip documents that can't make the top results.
+	 *
+	 * @param norms - BM25 length norm of every document by id
+	 * @param k1 - BM25 k1 parameter
+	 * @return highest score of this word in any document
+	 */
+	public float maxScore(float[] norms, float k1) {
+		//grab the version before reading anything, like the prefix cache does
+		int current = version;
+		Bound cached = bound;
+		if (cached != null && cached.version == current && cached.norms == norms && cached.k1 == k1)
+			return cached.value;
+
+		float max = 0;
+		DocumentCursor cursor = cursor();
+		while (cursor.next()) {
+			int document = cursor.document();
+			float norm = document < norms.length ? norms[document] : k1;
+			max = Math.max(max, InvertedIndex.bm25(1, cursor.count(), norm));
+		}
+
+		//a change while we were reading means the score may already be wrong, so don't keep it
+		if (version == current)
+			bound = new Bound(current, norms, k1, max);
+		return max;
+	}
+
+	/**
+	 * Moves on to the next version, so any highest BM25 score worked out before
+	 * is no longer used. Subclasses that change the documents or positions
+	 * themselves have to call this once the change is done, not before.
+	 */
+	protected void changed() {
+		VERSION.incrementAndGet(this);
+	}
+
+	/**
+	 * Returns a read-only view of the document ids in this index, sorted by id.
+	 * Nothing is copied, so the view shouldn't be used while the index is changing.
+	 *
+	 * @return sorted view of document ids
+	 */
+	public NavigableSet<Integer> documents() {
+		return Collections.unmodifiableNavigableSet(index.navigableKeySet());
+	}
+
+	/**
+	 * Creates a cursor that walks through the documents in this index in id
+	 * order, without copying any documents or positions. The cursor shouldn't
+	 * be used while the index is changing.
+	 *
+	 * @return cursor before the first document
+	 */
+	public DocumentCursor cursor() {
+		return new DocumentCursor(index.entrySet().iterator());
+	}
+
+	/**
+	 * Returns a copy of the document ids in this index as a sorted list.
+	 *
+	 * @return sorted list of document ids
+	 */
+	public List<Integer> copyDocuments() {
+		return new ArrayList<Integer>(index.keySet());
 	}
 
 	/**
@@ -93,13 +288,57 @@ public class PathIndex {
 	 */
 	public List<String> copyPaths() {
 		List<String> out = new ArrayList<String>();
-		
-		//grab list of paths and add them to output
-		for (String path : index.keySet())
-			out.add(path);
+
+		//turn every document id back into its path and add them to output
+		for (Integer document : index.keySet())
+			out.add(documents.getPath(document));
+
+		//ids are handed out in the order documents were seen, so sort by the paths themselves
+		Collections.sort(out);
 		return out;
 	}
 
+	/**
+	 * Returns a copy of the positions for a specific document.
+	 *
+	 * @param document - id of the document to find in index
+	 * @return sorted list of positions for that document
+	 */
+	public List<Integer> copyPositions(int document) {
+		//grab the positions for a particular document
+		PositionList positions = index.get(document);
+		List<Integer> out = new ArrayList<Integer>();
+
+		//decode the positions and add them to output
+		for (int pos : positions.toArray())
+			out.add(pos);
+		return out;
+	}
+
+	/**
+	 * Gets the encoded positions for a specific document without copying them.
+	 * Only meant for classes that write the index out, so it is not public.
+	 *
+	 * @param document - id of the document to find in index
+	 * @return positions for that document or null if it isn't in the index
+	 */
+	PositionList getPositions(int document) {
+		return index.get(document);
+	}
+
+	/**
+	 * Stores already encoded positions for a specific document, replacing any
+	 * positions it had. Only meant for classes that read the index back in, so
+	 * it is not public.
+	 *
+	 * @param document - id of the document
+	 * @param positions - positions for that document
+	 */
+	void putPositions(int document, PositionList positions) {
+		index.put(documents.key(document), positions);
+		changed();
+	}
+
 	/**
 	 * Returns a copy of the positions for a specific path.
 	 *
@@ -107,14 +346,7 @@ public class PathIndex {
 	 * @return sorted list of positions for that path
 	 */
 	public List<Integer> copyPositions(String path) {
-		//grab set for a particular file path
-		TreeSet<Integer> set = index.get(path);
-		List<Integer> out = new ArrayList<Integer>();
-		
-		//grab list of positions and add them to output
-		for (Integer pos : set)
-			out.add(pos);
-		return out;
+		return copyPositions(documents.get(path));
 	}
 
 	/**
@@ -124,4 +356,77 @@ public class PathIndex {
 	public String toString() {
 		return index.toString();
 	}
+
+	/**
+	 * Walks through the documents of a PathIndex one at a time, giving read-only
+	 * access to the count, first position and positions of each.
+	 */
+	public static class DocumentCursor {
+		private final Iterator<Map.Entry<Integer, PositionList>> iterator;
+		private Map.Entry<Integer, PositionList> current;
+
+		private DocumentCursor(Iterator<Map.Entry<Integer, PositionList>> iterator) {
+			this.iterator = iterator;
+			this.current = null;
+		}
+
+		/**
+		 * Moves to the next document.
+		 * @return false if there are no documents left
+		 */
+		public boolean next() {
+			if (!iterator.hasNext())
+				return false;
+			current = iterator.next();
+			return true;
+		}
+
+		/**
+		 * @return id of the current document
+		 */
+		public int document() {
+			return current.getKey();
+		}
+
+		/**
+		 * @return number of positions in the current document
+		 */
+		public int count() {
+			return current.getValue().size();
+		}
+
+		/**
+		 * @return first position in the current document
+		 */
+		public int first() {
+			return current.getValue().first();
+		}
+
+		/**
+		 * Points a position cursor at the positions of the current document.
+		 * @param positions - cursor to reset
+		 * @return the same cursor, for convenience
+		 */
+		public PositionList.Cursor positions(PositionList.Cursor positions) {
+			positions.reset(current.getValue());
+			return positions;
+		}
+	}
+
+	/**
+	 * Highest BM25 score of a word, along with the version and norms it was worked out from.
+	 */
+	private static class Bound {
+		private final int version;
+		private final float[] norms;
+		private final float k1;
+		private final float value;
+
+		public Bound(int version, float[] norms, float k1, float value) {
+			this.version = version;
+			this.norms = norms;
+			this.k1 = k1;
+			this.value = value;
+		}
+	}
 }
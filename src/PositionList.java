@@ -0,0 +1,260 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Compact sorted set of word positions. Positions are stored as the difference
+ * from the previous position, encoded as variable-length bytes (7 bits per byte,
+ * the high bit marks that another byte follows), so a typical position only takes
+ * one or two bytes instead of a boxed Integer in a tree node.
+ *
+ * @author Robert Macaibay
+ */
+public class PositionList {
+	//encoded deltas
+	private byte[] bytes;
+	//number of bytes used in the array
+	private int length;
+	//number of positions stored
+	private int count;
+	//largest position stored, used to compute the next delta
+	private int last;
+
+	/**
+	 * Initializes an empty list.
+	 */
+	public PositionList() {
+		bytes = new byte[8];
+		length = 0;
+		count = 0;
+		last = 0;
+	}
+
+	/**
+	 * Creates a list from positions that were already encoded by another list.
+	 *
+	 * @param bytes - encoded positions, which the list takes ownership of
+	 * @param count - number of positions encoded
+	 * @param last - largest position encoded
+	 *
+	 * @see #writeBytes(OutputStream)
+	 */
+	public PositionList(byte[] bytes, int count, int last) {
+		this.bytes = bytes;
+		this.length = bytes.length;
+		this.count = count;
+		this.last = last;
+	}
+
+	/**
+	 * Creates a copy of another list.
+	 *
+	 * @param other - list to copy
+	 */
+	public PositionList(PositionList other) {
+		this(Arrays.copyOf(other.bytes, other.length), other.count, other.last);
+	}
+
+	/**
+	 * Adds a position to the list. Appending a position larger than every other
+	 * one is the fast path used while indexing; anything else falls back to
+	 * re-encoding the whole list.
+	 *
+	 * @param position - position to add
+	 * @return true if the position was not already in the list
+	 */
+	public boolean add(int position) {
+		//positions almost always come in increasing order, so just append the delta
+		if (count == 0 || position > last) {
+			write(position - last);
+			last = position;
+			count++;
+			return true;
+		}
+
+		//otherwise check if we already have it and insert it where it belongs
+		int[] positions = toArray();
+		int found = Arrays.binarySearch(positions, position);
+		if (found >= 0)
+			return false;
+
+		int insert = -(found + 1);
+		int[] updated = new int[count + 1];
+		System.arraycopy(positions, 0, updated, 0, insert);
+		updated[insert] = position;
+		System.arraycopy(positions, insert, updated, insert + 1, count - insert);
+
+		//re-encode everything from scratch
+		length = 0;
+		count = 0;
+		last = 0;
+		for (int pos : updated)
+			add(pos);
+		return true;
+	}
+
+	/**
+	 * Returns the number of positions stored in the list.
+	 * @return number of positions
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the smallest position stored in the list.
+	 * @return first position
+	 */
+	public int first() {
+		//the first delta is relative to 0, so it is the first position itself
+		int value = 0;
+		int shift = 0;
+		int i = 0;
+		byte b;
+		do {
+			b = bytes[i++];
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	/**
+	 * Returns the largest position stored in the list.
+	 * @return last position
+	 */
+	public int last() {
+		return last;
+	}
+
+	/**
+	 * Decodes all of the positions into a sorted array.
+	 * @return sorted array of positions
+	 */
+	public int[] toArray() {
+		int[] out = new int[count];
+		int value = 0;
+		int i = 0;
+
+		//decode every delta and add it to the previous position
+		for (int k = 0; k < count; k++) {
+			int delta = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = bytes[i++];
+				delta |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			value += delta;
+			out[k] = value;
+		}
+		return out;
+	}
+
+	/**
+	 * Creates a cursor over the positions in this list.
+	 * @return cursor at the first position
+	 */
+	public Cursor cursor() {
+		Cursor cursor = new Cursor();
+		cursor.reset(this);
+		return cursor;
+	}
+
+	/**
+	 * Returns the number of bytes used to store the encoded positions.
+	 * @return number of encoded bytes
+	 */
+	public int bytes() {
+		return length;
+	}
+
+	/**
+	 * Writes the encoded positions as-is, so they can be decoded again later
+	 * without building a list.
+	 * @param out - stream to write to
+	 * @throws IOException - if the stream can't be written to
+	 */
+	public void writeBytes(OutputStream out) throws IOException {
+		out.write(bytes, 0, length);
+	}
+
+	/**
+	 * Appends a single value as variable-length bytes.
+	 * @param value - value to encode
+	 */
+	private void write(int value) {
+		//make sure we have room for the largest possible encoding
+		if (length + 5 > bytes.length)
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 5));
+
+		//write 7 bits at a time, setting the high bit if there's more to come
+		while ((value & ~0x7F) != 0) {
+			bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[length++] = (byte) value;
+	}
+
+	/**
+	 * Returns a string representation of this list.
+	 */
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+
+	/**
+	 * Decodes the positions of a list one at a time without boxing them or
+	 * copying them into an array. A cursor can be reset to another list, so one
+	 * cursor can walk through every list in an index.
+	 */
+	public static class Cursor {
+		private PositionList list;
+		//byte to decode next
+		private int offset;
+		//number of positions decoded so far
+		private int read;
+		//last position decoded
+		private int value;
+
+		/**
+		 * Moves the cursor to the start of another list.
+		 * @param list - list to walk through
+		 */
+		public void reset(PositionList list) {
+			this.list = list;
+			this.offset = 0;
+			this.read = 0;
+			this.value = 0;
+		}
+
+		/**
+		 * Tests whether there are positions left.
+		 * @return true if {@link #next()} can be called
+		 */
+		public boolean hasNext() {
+			return read < list.count;
+		}
+
+		/**
+		 * Decodes the next position.
+		 * @return next position
+		 */
+		public int next() {
+			byte[] bytes = list.bytes;
+			int delta = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = bytes[offset++];
+				delta |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			read++;
+			value += delta;
+			return value;
+		}
+	}
+}
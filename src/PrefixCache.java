@@ -0,0 +1,206 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers what a prefix expands to, so partial searches for a prefix that
+ * keeps coming up don't have to merge the postings of every matching word
+ * over and over. Each prefix maps to an {@link Expansion}: every document any
+ * matching word is in, with the total count and earliest position of all of
+ * those words.
+ *
+ * The cache is bounded by roughly how many bytes its expansions take up, and
+ * throws out the least recently used prefixes first once it's full. It knows
+ * nothing about the index itself; the index calls {@link #invalidate()} after
+ * every change, and every expansion computed before that is thrown out.
+ *
+ * @author Robert Macaibay
+ */
+public class PrefixCache {
+	//default number of bytes the expansions may take up
+	private static final long CAPACITY = 8L << 20;
+	//rough size of an entry without its arrays
+	private static final long OVERHEAD = 96;
+
+	//bumped after every change to the index
+	private final AtomicLong version;
+	//maximum number of bytes the expansions may take up
+	private final long capacity;
+	//expansions in least recently used order
+	private final LinkedHashMap<String, Expansion> entries;
+	//version of the index the expansions belong to
+	private long cached;
+	//number of bytes the expansions take up
+	private long bytes;
+
+	private long hits;
+	private long misses;
+
+	/**
+	 * Creates a cache that holds up to 8 MB of expansions.
+	 */
+	public PrefixCache() {
+		this(CAPACITY);
+	}
+
+	/**
+	 * Creates a cache that holds up to the given number of bytes of expansions.
+	 * @param capacity - maximum number of bytes, or 0 to never cache anything
+	 */
+	public PrefixCache(long capacity) {
+		this.version = new AtomicLong();
+		this.capacity = capacity;
+		//access order so the first entry is always the least recently used one
+		this.entries = new LinkedHashMap<String, Expansion>(16, 0.75f, true);
+	}
+
+	/**
+	 * Gets the current version of the index. Grab it before reading the index and
+	 * hand it back with {@link #get(String, long)} and {@link #put(String, long, Expansion)},
+	 * so an expansion read while the index was changing is never kept.
+	 * @return current version
+	 */
+	public long version() {
+		return version.get();
+	}
+
+	/**
+	 * Throws out every expansion. Call this after the index changes, not before,
+	 * so a search can't cache what it read halfway through the change.
+	 */
+	public void invalidate() {
+		version.incrementAndGet();
+	}
+
+	/**
+	 * Gets the expansion of a prefix.
+	 * @param prefix - prefix to look for
+	 * @param version - version of the index the search is reading
+	 * @return expansion of the prefix or null if it isn't cached
+	 */
+	public synchronized Expansion get(String prefix, long version) {
+		Expansion expansion = current(version) ? entries.get(prefix) : null;
+		if (expansion != null)
+			hits++;
+		else
+			misses++;
+		return expansion;
+	}
+
+	/**
+	 * Caches the expansion of a prefix, throwing out the least recently used
+	 * expansions until it fits. Expansions that are too big to ever fit aren't kept.
+	 * @param prefix - prefix that was expanded
+	 * @param version - version of the index the expansion was read from
+	 * @param expansion - expansion of the prefix
+	 */
+	public synchronized void put(String prefix, long version, Expansion expansion) {
+		long size = size(prefix, expansion);
+		//one huge prefix shouldn't flush out everything else
+		if (!current(version) || size > capacity / 4)
+			return;
+
+		Expansion prev = entries.put(prefix, expansion);
+		if (prev != null)
+			bytes -= size(prefix, prev);
+		bytes += size;
+
+		Iterator<Map.Entry<String, Expansion>> iterator = entries.entrySet().iterator();
+		while (bytes > capacity && iterator.hasNext()) {
+			Map.Entry<String, Expansion> eldest = iterator.next();
+			bytes -= size(eldest.getKey(), eldest.getValue());
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Checks if a version of the index is the one our expansions belong to,
+	 * throwing every expansion out if the index has moved on since.
+	 * @param version - version of the index the caller is using
+	 * @return true if the caller's version is the current one
+	 */
+	private boolean current(long version) {
+		if (version > cached) {
+			entries.clear();
+			bytes = 0;
+			cached = version;
+		}
+		return version == cached;
+	}
+
+	/**
+	 * Estimates how many bytes an entry takes up.
+	 * @param prefix - prefix of the entry
+	 * @param expansion - expansion of the entry
+	 * @return size in bytes
+	 */
+	private static long size(String prefix, Expansion expansion) {
+		return OVERHEAD + prefix.length() * 2 + expansion.size() * 12L;
+	}
+
+	/**
+	 * Returns the number of lookups that found an expansion.
+	 * @return number of hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that didn't find an expansion.
+	 * @return number of misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the fraction of lookups that found an expansion.
+	 * @return hit rate between 0 and 1, or 0 if nothing was looked up yet
+	 */
+	public synchronized double getHitRate() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	/**
+	 * Returns roughly how many bytes the cached expansions take up.
+	 * @return size in bytes
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Every document a prefix is in, in document order, with the total count
+	 * and earliest position of every word starting with the prefix.
+	 */
+	public static class Expansion {
+		private final int[] documents;
+		private final int[] counts;
+		private final int[] firsts;
+
+		public Expansion(int[] documents, int[] counts, int[] firsts) {
+			this.documents = documents;
+			this.counts = counts;
+			this.firsts = firsts;
+		}
+
+		public int size() {
+			return documents.length;
+		}
+
+		public int document(int i) {
+			return documents[i];
+		}
+
+		public int count(int i) {
+			return counts[i];
+		}
+
+		public int first(int i) {
+			return firsts[i];
+		}
+	}
+}
@@ -22,6 +22,17 @@ public class QueryReader {
 	 * @throws IOException - throwing this exception because we're reading files
 	 */
 	public static List<List<String>> getQueries(String path) throws IOException {
+		return getQueries(path, true);
+	}
+	
+	/**
+	 * Gets list of queries from a specified path
+	 * @param path - path to file
+	 * @param sort - whether to sort the words of each query, which phrases can't do
+	 * @return list of queries
+	 * @throws IOException - throwing this exception because we're reading files
+	 */
+	public static List<List<String>> getQueries(String path, boolean sort) throws IOException {
 		//queries list for output
 		List<List<String>> queries = new ArrayList<List<String>>();
 		
@@ -36,8 +47,9 @@ public class QueryReader {
 					continue;
 				//split the line query into a list
 				List<String> lineQueries = Arrays.asList(line.split("\\s+"));
-				//sort that list
-				Collections.sort(lineQueries);
+				//sort that list unless the order of the words matters
+				if (sort)
+					Collections.sort(lineQueries);
 				//add it to our ouput queries list
 				queries.add(lineQueries);
 			}
@@ -0,0 +1,297 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Searches every {@link ShardServer} at once and merges their results, as if
+ * their segments were one index. Every shard is sent the same search, answers
+ * with its best k results, and the best k of all of those are kept.
+ *
+ * Each shard gets one connection that is kept open and used by one search at
+ * a time. A connection that breaks is opened again by the next search of
+ * that shard, so a shard that restarts is picked back up. Paths are given ids
+ * in a table of our own, so results from different shards compare as usual.
+ *
+ * @author Robert Macaibay
+ */
+public class SearchCoordinator implements Closeable {
+	//connection to every shard
+	private final List<Connection> shards;
+	//ids of every path the shards have sent back
+	private final DocumentTable documents;
+	//work queue the shards are searched on
+	private final WorkQueue queue;
+
+	/**
+	 * Connects to every shard.
+	 * @param addresses - addresses of the shard servers
+	 * @throws IOException - if a shard can't be connected to
+	 */
+	public SearchCoordinator(List<InetSocketAddress> addresses) throws IOException {
+		this.shards = new ArrayList<Connection>();
+		this.documents = new DocumentTable();
+
+		try {
+			for (InetSocketAddress address : addresses)
+				shards.add(new Connection(address));
+		} catch (IOException e) {
+			for (Connection shard : shards)
+				shard.close();
+			throw e;
+		}
+
+		this.queue = new WorkQueue(Math.max(1, shards.size()));
+	}
+
+	/**
+	 * Parses a list of shard addresses like <code>localhost:4000,localhost:4001</code>.
+	 * @param nodes - comma separated host:port pairs
+	 * @return address of every shard
+	 * @throws IllegalArgumentException - if a pair doesn't have a valid port
+	 */
+	public static List<InetSocketAddress> parse(String nodes) {
+		List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+		for (String node : nodes.split(",")) {
+			node = node.trim();
+			int colon = node.lastIndexOf(':');
+			if (colon < 0)
+				throw new IllegalArgumentException("Shard " + node + " has no port.");
+			String host = colon == 0 ? "localhost" : node.substring(0, colon);
+			addresses.add(new InetSocketAddress(host, Integer.parseInt(node.substring(colon + 1))));
+		}
+		return addresses;
+	}
+
+	/**
+	 * Gets a list of exact search results from a list of queries
+	 * @param queries - list of queries
+	 * @return list of exact search results
+	 * @throws IOException - if a shard can't be searched
+	 */
+	public List<SearchResult> exactSearch(List<String> queries) throws IOException {
+		return exactSearch(queries, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Gets the best exact search results from a list of queries
+	 * @param queries - list of queries
+	 * @param k - maximum number of results to return
+	 * @return list of at most k exact search results
+	 * @throws IOException - if a shard can't be searched
+	 */
+	public List<SearchResult> exactSearch(List<String> queries, int k) throws IOException {
+		return gather(ShardServer.EXACT, queries, k);
+	}
+
+	/**
+	 * Gets a list of partial search results from a list of queries
+	 * @param queries - list of queries
+	 * @return list of partial search results
+	 * @throws IOException - if a shard can't be searched
+	 */
+	public List<SearchResult> partialSearch(List<String> queries) throws IOException {
+		return partialSearch(queries, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Gets the best partial search results from a list of queries
+	 * @param queries - list of queries
+	 * @param k - maximum number of results to return
+	 * @return list of at most k partial search results
+	 * @throws IOException - if a shard can't be searched
+	 */
+	public List<SearchResult> partialSearch(List<String> queries, int k) throws IOException {
+		return gather(ShardServer.PARTIAL, queries, k);
+	}
+
+	/**
+	 * Sends a search to every shard at once and merges the best k results of each.
+	 * @param kind - kind of search
+	 * @param queries - list of queries
+	 * @param k - maximum number of results to return
+	 * @return the best k results across every shard
+	 * @throws IOException - if a shard can't be searched
+	 */
+	private List<SearchResult> gather(byte kind, List<String> queries, int k) throws IOException {
+		RemoteSearchTask[] tasks = new RemoteSearchTask[shards.size()];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new RemoteSearchTask(shards.get(i), kind, queries, k);
+			queue.execute(tasks[i]);
+		}
+
+		List<SearchResult> results = new ArrayList<SearchResult>();
+		for (RemoteSearchTask task : tasks)
+			results.addAll(task.await());
+		return SearchResult.top(results, k);
+	}
+
+	/**
+	 * Hangs up on every shard.
+	 */
+	@Override
+	public void close() throws IOException {
+		queue.shutdown();
+		for (Connection shard : shards)
+			shard.close();
+	}
+
+	/**
+	 * A connection to one shard, used by one search at a time.
+	 */
+	private class Connection implements Closeable {
+		private final InetSocketAddress address;
+		//replaced whenever the connection has to be opened again
+		private volatile Socket socket;
+		private DataInputStream in;
+		private DataOutputStream out;
+
+		public Connection(InetSocketAddress address) throws IOException {
+			this.address = address;
+			try {
+				connect();
+			} catch (IOException e) {
+				throw new IOException("Couldn't connect to shard " + address.getHostString() + ":" + address.getPort() + ": " + e.getMessage(), e);
+			}
+		}
+
+		/**
+		 * Opens the connection to the shard.
+		 * @throws IOException - if the shard can't be connected to
+		 */
+		private void connect() throws IOException {
+			//connecting this way reports a host that can't be found as an UnknownHostException
+			Socket opened = new Socket();
+			try {
+				opened.connect(address);
+				//requests are small and we wait on every answer, so don't hold them back
+				opened.setTcpNoDelay(true);
+				in = new DataInputStream(new BufferedInputStream(opened.getInputStream()));
+				out = new DataOutputStream(new BufferedOutputStream(opened.getOutputStream()));
+			} catch (IOException e) {
+				//the old socket stays closed, so the next search of this shard tries again
+				opened.close();
+				throw e;
+			}
+			socket = opened;
+		}
+
+		/**
+		 * Sends a search and reads back the results, opening the connection
+		 * again first if the last search broke it.
+		 * @param kind - kind of search
+		 * @param queries - list of queries
+		 * @param k - maximum number of results to return
+		 * @return results of this shard
+		 * @throws IOException - if the shard can't be reached or the search failed
+		 */
+		public synchronized List<SearchResult> search(byte kind, List<String> queries, int k) throws IOException {
+			if (socket.isClosed())
+				connect();
+
+			List<SearchResult> results = new ArrayList<SearchResult>();
+			String error = null;
+
+			try {
+				out.writeByte(kind);
+				out.writeInt(k);
+				out.writeInt(queries.size());
+				for (String query : queries)
+					out.writeUTF(query);
+				out.flush();
+
+				int count = in.readInt();
+				if (count == ShardServer.ERROR)
+					error = in.readUTF();
+
+				for (int i = 0; i < count; i++) {
+					int document = documents.add(in.readUTF());
+					int frequency = in.readInt();
+					int pos = in.readInt();
+					results.add(new SearchResult(frequency, pos, document, documents));
+				}
+			} catch (IOException | RuntimeException e) {
+				//we don't know how much of the answer is left unread, so the connection is no good anymore
+				socket.close();
+				throw e;
+			}
+
+			if (error != null)
+				throw new IOException("Shard " + address + " failed: " + error);
+			return results;
+		}
+
+		@Override
+		public void close() throws IOException {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Searches one shard and holds on to its results until they're picked up.
+	 */
+	private static class RemoteSearchTask implements Runnable {
+		private final Connection shard;
+		private final byte kind;
+		private final List<String> queries;
+		private final int k;
+		private List<SearchResult> results;
+		//either an IOException or a RuntimeException
+		private Exception failure;
+		private boolean done;
+
+		public RemoteSearchTask(Connection shard, byte kind, List<String> queries, int k) {
+			this.shard = shard;
+			this.kind = kind;
+			this.queries = queries;
+			this.k = k;
+		}
+
+		@Override
+		public void run() {
+			List<SearchResult> found = null;
+			Exception thrown = null;
+			try {
+				found = shard.search(kind, queries, k);
+			} catch (IOException | RuntimeException e) {
+				//anything else would leave whoever waits on us waiting forever
+				thrown = e;
+			}
+
+			synchronized (this) {
+				results = found;
+				failure = thrown;
+				done = true;
+				notifyAll();
+			}
+		}
+
+		/**
+		 * Waits for the shard to answer.
+		 * @return results of the shard
+		 * @throws IOException - if the shard couldn't be searched
+		 */
+		public synchronized List<SearchResult> await() throws IOException {
+			while (!done) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while searching a shard.", e);
+				}
+			}
+
+			if (failure instanceof IOException)
+				throw (IOException) failure;
+			if (failure != null)
+				throw (RuntimeException) failure;
+			return results;
+		}
+	}
+}
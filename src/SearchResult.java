@@ -1,26 +1,37 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
 /**
  * Creates an object that holds information about a search result
- * 
+ *
  * @author Robert Macaibay
  */
 public class SearchResult implements Comparable<SearchResult> {
 	//private class variables
 	private int frequency;
 	private int pos;
-	private String path;
-	
+	private int document;
+	private DocumentTable documents;
+	private float score;
+
 	/**
 	 * constructs a search result object
 	 * @param frequency - amount of times a query came up in a file
 	 * @param pos - first instance the query came up
-	 * @param path - path to the file
+	 * @param document - id of the file
+	 * @param documents - table used to turn the id back into a path
 	 */
-	public SearchResult(int frequency, int pos, String path) {
+	public SearchResult(int frequency, int pos, int document, DocumentTable documents) {
 		this.setFrequency(frequency);
 		this.setPos(pos);
-		this.setPath(path);
+		this.document = document;
+		this.documents = documents;
+		this.score = 0;
 	}
-	
+
 	/**
 	 * compares one search result to another
 	 * @param other - another search result to compare to
@@ -28,10 +39,13 @@ public class SearchResult implements Comparable<SearchResult> {
 	 */
 	@Override
 	public int compareTo(SearchResult other) {
+		//order by highest score, unscored results all have the same one
+		if (score != other.score)
+			return Float.compare(other.score, score);
 		if (frequency == other.getFrequency()) {
 			if (pos == other.getPos()) {
 				//natural order by the path names
-				return path.toString().compareTo(other.getPath().toString());
+				return documents.compare(document, other.getDocument());
 			}
 			//order by the lowest first position found
 			return pos - other.getPos();
@@ -56,11 +70,56 @@ public class SearchResult implements Comparable<SearchResult> {
 		this.frequency = frequency;
 	}
 
+	public float getScore() {
+		return score;
+	}
+
+	public void addScore(float score) {
+		this.score += score;
+	}
+
+	public int getDocument() {
+		return document;
+	}
+
 	public String getPath() {
-		return path;
+		return documents.getPath(document);
 	}
 
-	public void setPath(String path) {
-		this.path = path;
+	/**
+	 * Picks the best results in sorted order. When only a few of many results
+	 * are wanted, they are kept in a bounded heap instead of sorting everything.
+	 * @param results - results to pick from
+	 * @param k - maximum number of results to return
+	 * @return at most k of the best results, sorted
+	 */
+	public static List<SearchResult> top(Collection<SearchResult> results, int k) {
+		//sorting everything is just as fast when we want all of it
+		if (k >= results.size()) {
+			List<SearchResult> out = new ArrayList<SearchResult>(results);
+			Collections.sort(out);
+			return out;
+		}
+
+		List<SearchResult> out = new ArrayList<SearchResult>(Math.max(k, 0));
+		if (k <= 0)
+			return out;
+
+		//keep the worst of the best k at the head so it can be replaced quickly
+		PriorityQueue<SearchResult> heap = new PriorityQueue<SearchResult>(k, Collections.reverseOrder());
+		for (SearchResult result : results) {
+			if (heap.size() < k)
+				heap.add(result);
+			else if (result.compareTo(heap.peek()) < 0) {
+				heap.poll();
+				heap.add(result);
+			}
+		}
+
+		//the heap hands them back worst first
+		while (!heap.isEmpty())
+			out.add(heap.poll());
+		Collections.reverse(out);
+		return out;
 	}
 }
@@ -0,0 +1,200 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Answers searches over one {@link IndexSegment} for a {@link SearchCoordinator},
+ * so an index too big for one JVM can be split into segments that are each
+ * searched by their own process.
+ *
+ * Every connection sends any number of requests and gets one response back for
+ * each, in order:
+ * <pre>
+ * request     kind of search, k, number of queries, then every query
+ * response    number of results, then for every result its path, frequency
+ *             and first position; or -1 and an error message
+ * </pre>
+ * Strings are written with {@link DataOutputStream#writeUTF(String)}.
+ *
+ * Run it with <code>-segment</code> to pick the segment file, <code>-port</code>
+ * to pick the port (any free port if missing) and <code>-threads</code> to pick
+ * how many connections are served at once. It only listens on the loopback
+ * address unless <code>-bind</code> gives another address.
+ *
+ * @author Robert Macaibay
+ */
+public class ShardServer implements Closeable {
+	//kinds of search a request can ask for
+	public static final byte EXACT = 1;
+	public static final byte PARTIAL = 2;
+	//sent instead of a number of results when a search fails
+	public static final int ERROR = -1;
+
+	//segment being searched
+	private final IndexSegment segment;
+	//socket we accept connections on
+	private final ServerSocket server;
+	//work queue every connection is served on
+	private final WorkQueue queue;
+
+	/**
+	 * Starts listening for connections, without accepting any yet.
+	 * @param segment - segment to search
+	 * @param address - address to listen on
+	 * @param port - port to listen on, or 0 for any free port
+	 * @param threads - number of connections served at once
+	 * @throws IOException - if the port can't be listened on
+	 */
+	public ShardServer(IndexSegment segment, InetAddress address, int port, int threads) throws IOException {
+		this.segment = segment;
+		this.server = new ServerSocket(port, 50, address);
+		this.queue = new WorkQueue(threads);
+	}
+
+	/**
+	 * Returns the port we are listening on.
+	 * @return port number
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Accepts connections and serves each one on the work queue until the server is closed.
+	 */
+	public void serve() {
+		try {
+			while (true)
+				queue.execute(new ConnectionTask(segment, server.accept()));
+		} catch (IOException e) {
+			//closing the server socket is how we are told to stop
+			if (!server.isClosed())
+				e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Stops accepting connections and closes the segment.
+	 */
+	@Override
+	public void close() throws IOException {
+		server.close();
+		queue.shutdown();
+		segment.close();
+	}
+
+	/**
+	 * Starts a shard server with the arguments described above and serves until killed.
+	 * @param args - command line arguments
+	 */
+	public static void main(String[] args) {
+		ArgumentMap am = new ArgumentMap(args);
+
+		if (!am.hasValue("-segment")) {
+			System.out.println("There is no specified segment.");
+			return;
+		}
+
+		int port = 0;
+		int threads = WorkQueue.DEFAULT;
+		try {
+			if (am.hasValue("-port"))
+				port = Integer.parseInt(am.getString("-port"));
+			if (am.hasValue("-threads"))
+				threads = Math.max(1, Integer.parseInt(am.getString("-threads")));
+		} catch (NumberFormatException e) {
+			System.out.println("Port and threads have to be numbers.");
+			return;
+		}
+
+		try {
+			InetAddress address = am.hasValue("-bind") ? InetAddress.getByName(am.getString("-bind")) : InetAddress.getLoopbackAddress();
+			ShardServer shard = new ShardServer(IndexSegment.open(Paths.get(am.getString("-segment"))), address, port, threads);
+			//whoever started us needs the port if it let us pick one
+			System.out.println("Listening on port " + shard.getPort());
+			shard.serve();
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+
+	/**
+	 * Answers every request on one connection until the other side hangs up.
+	 */
+	private static class ConnectionTask implements Runnable {
+		private final IndexSegment segment;
+		private final Socket socket;
+
+		public ConnectionTask(IndexSegment segment, Socket socket) {
+			this.segment = segment;
+			this.socket = socket;
+		}
+
+		@Override
+		public void run() {
+			try (Socket s = socket;
+					DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+					DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+				//answers go out as soon as they're written
+				s.setTcpNoDelay(true);
+
+				while (true) {
+					byte kind;
+					try {
+						kind = in.readByte();
+					} catch (EOFException e) {
+						//the coordinator is done with us
+						return;
+					}
+
+					int k = in.readInt();
+					List<String> queries = new ArrayList<String>();
+					for (int i = in.readInt(); i > 0; i--)
+						queries.add(in.readUTF());
+
+					List<SearchResult> results;
+					try {
+						if (kind == EXACT)
+							results = segment.exactSearch(queries, k);
+						else if (kind == PARTIAL)
+							results = segment.partialSearch(queries, k);
+						else
+							throw new IllegalArgumentException("Unknown kind of search: " + kind);
+					} catch (RuntimeException e) {
+						//the whole request was read, so tell the coordinator and wait for the next one
+						e.printStackTrace();
+						String message = e.getMessage() == null ? e.toString() : e.getMessage();
+						out.writeInt(ERROR);
+						//a message that long wouldn't fit in writeUTF
+						out.writeUTF(message.length() > 1024 ? message.substring(0, 1024) : message);
+						out.flush();
+						continue;
+					}
+
+					out.writeInt(results.size());
+					for (SearchResult result : results) {
+						out.writeUTF(result.getPath());
+						out.writeInt(result.getFrequency());
+						out.writeInt(result.getPos());
+					}
+					out.flush();
+				}
+			} catch (SocketException e) {
+				//the connection was dropped, nothing left to answer
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
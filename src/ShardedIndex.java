@@ -0,0 +1,374 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * An index split into shards by document, where every shard is its own
+ * {@link ThreadSafeInvertedIndex} with its own lock. Documents are spread over
+ * the shards by id, so building different documents rarely waits on the same
+ * lock, and every search runs on all of the shards at once through the work
+ * queue before the best results of each shard are merged.
+ *
+ * Every shard shares one {@link DocumentTable}, so ids and paths mean the same
+ * thing in every shard and results from different shards compare as usual.
+ * Each document lives in exactly one shard, so merging frequency ordered
+ * results gives exactly what a single index would. BM25 scores use the
+ * statistics of the shard a document is in, so ranked results can come out
+ * slightly differently than on a single index.
+ *
+ * @author Robert Macaibay
+ */
+public class ShardedIndex extends InvertedIndex {
+	//every shard, a document lives in the shard its id picks
+	private final Shard[] shards;
+	//work queue the shards are searched on, or null to search them one at a time
+	private final WorkQueue queue;
+
+	/**
+	 * Creates an empty index with the given number of shards.
+	 * @param count - number of shards
+	 * @param queue - work queue to search the shards on, or null to search them one at a time
+	 */
+	public ShardedIndex(int count, WorkQueue queue) {
+		this(new DocumentTable(), count, queue);
+	}
+
+	/**
+	 * Creates an empty index with the given number of shards that shares a table of document ids.
+	 * @param documents - table of document ids
+	 * @param count - number of shards
+	 * @param queue - work queue to search the shards on, or null to search them one at a time
+	 */
+	public ShardedIndex(DocumentTable documents, int count, WorkQueue queue) {
+		super(documents);
+		if (count < 1)
+			throw new IllegalArgumentException("An index needs at least one shard.");
+
+		this.shards = new Shard[count];
+		for (int i = 0; i < count; i++)
+			shards[i] = new Shard(documents, i, count);
+		this.queue = queue;
+	}
+
+	/**
+	 * Gets the shard a document belongs in, giving the document an id if it doesn't have one yet.
+	 * @param path - path of the document
+	 * @return shard to add the document to
+	 */
+	public ThreadSafeInvertedIndex route(String path) {
+		return shards[documents.add(path) % shards.length];
+	}
+
+	/**
+	 * Returns the number of shards.
+	 * @return number of shards
+	 */
+	public int shards() {
+		return shards.length;
+	}
+
+	/**
+	 * Gets one of the shards, for example to write it into its own segment.
+	 * @param shard - which shard to get
+	 * @return index of that shard
+	 */
+	public InvertedIndex getShard(int shard) {
+		return shards[shard];
+	}
+
+	/**
+	 * Merges the private indexes the build tasks created in every shard.
+	 * @param queue - work queue to merge with
+	 */
+	public void mergePartials(WorkQueue queue) {
+		for (Shard shard : shards)
+			shard.mergePartials(queue);
+	}
+
+	@Override
+	public void add(String word, String path, int pos) {
+		route(path).add(word, path, pos);
+	}
+
+	@Override
+	public void addAll(String[] words, String path, int start) {
+		route(path).addAll(words, path, start);
+	}
+
+	@Override
+	public void addBatch(String[] words, int count, String path, int offset) {
+		route(path).addBatch(words, count, path, offset);
+	}
+
+	/**
+	 * Splits every word of another index between the shards. Both indexes have to
+	 * share the same document table, and the other index shouldn't be used
+	 * afterwards since its positions are moved rather than copied.
+	 *
+	 * @param other - index to merge into this one
+	 */
+	@Override
+	public void addAll(InvertedIndex other) {
+		//document ids only mean the same thing if the table is the same
+		if (other.documents != documents)
+			throw new IllegalArgumentException("Indexes must share the same document table to be merged.");
+
+		//build the part of the other index that belongs in each shard
+		InvertedIndex[] parts = new InvertedIndex[shards.length];
+		for (int i = 0; i < parts.length; i++)
+			parts[i] = new InvertedIndex(documents);
+
+		for (Map.Entry<String, PathIndex> entry : other.postings().entrySet()) {
+			PathIndex pi = entry.getValue();
+			for (Integer document : pi.documents()) {
+				InvertedIndex part = parts[document % parts.length];
+				PathIndex split = part.index.get(entry.getKey());
+				if (split == null) {
+					split = new PathIndex(documents);
+					part.index.put(entry.getKey(), split);
+				}
+				split.putPositions(document, pi.getPositions(document));
+			}
+		}
+
+		for (int i = 0; i < shards.length; i++)
+			shards[i].addAll(parts[i]);
+	}
+
+	/**
+	 * Returns the words of every shard in sorted order. Every shard has its own
+	 * words, so unlike other indexes this is a copy.
+	 * @return sorted set of words
+	 */
+	@Override
+	public NavigableSet<String> words() {
+		TreeSet<String> words = new TreeSet<String>();
+		for (Shard shard : shards)
+			words.addAll(shard.copyWords());
+		return words;
+	}
+
+	@Override
+	public List<String> copyWords() {
+		return new ArrayList<String>(words());
+	}
+
+	/**
+	 * Copies every word of every shard into a sorted map, so a sharded index can
+	 * be merged into another index. The path indexes are copied too, since the
+	 * shards keep using their own.
+	 * @return sorted map of words to copies of their path indexes
+	 */
+	@Override
+	protected NavigableMap<String, PathIndex> postings() {
+		NavigableMap<String, PathIndex> copy = new TreeMap<String, PathIndex>();
+		for (Shard shard : shards) {
+			shard.getLock().lockReadOnly();
+			try {
+				for (Map.Entry<String, PathIndex> entry : shard.postings().entrySet()) {
+					PathIndex pi = copy.get(entry.getKey());
+					if (pi == null) {
+						copy.put(entry.getKey(), entry.getValue().copy());
+					} else {
+						//every document is in exactly one shard, so nothing overlaps
+						for (Integer document : entry.getValue().documents())
+							pi.putPositions(document, new PositionList(entry.getValue().getPositions(document)));
+					}
+				}
+			} finally {
+				shard.getLock().unlockReadOnly();
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Finds the PathIndex of a word across every shard. A word found in more than
+	 * one shard gets a new PathIndex that shares the positions of each shard.
+	 * @param word - specified word to find
+	 * @return Mapping of paths and positions for a word, or null if it isn't in any shard
+	 */
+	@Override
+	protected PathIndex find(String word) {
+		PathIndex found = null;
+		boolean copied = false;
+
+		for (Shard shard : shards) {
+			PathIndex pi = shard.get(word);
+			if (pi == null)
+				continue;
+
+			if (found == null) {
+				found = pi;
+				continue;
+			}
+
+			//never change a shard's own path index
+			if (!copied) {
+				PathIndex merged = new PathIndex(documents);
+				for (Integer document : found.documents())
+					merged.putPositions(document, found.getPositions(document));
+				found = merged;
+				copied = true;
+			}
+			//every document is in exactly one shard, so nothing overlaps
+			for (Integer document : pi.documents())
+				found.putPositions(document, pi.getPositions(document));
+		}
+		return found;
+	}
+
+	/**
+	 * Sharded indexes are already searched under each shard's own lock, so there
+	 * is nothing to freeze; the index itself is returned. Nothing may add to it
+	 * after it is published.
+	 * @return this index
+	 */
+	@Override
+	public InvertedIndex freeze() {
+		return this;
+	}
+
+	@Override
+	public List<SearchResult> exactSearch(List<String> queries, int k) {
+		return gather(shard -> shard.exactSearch(queries, k), k);
+	}
+
+	@Override
+	public List<SearchResult> partialSearch(List<String> queries, int k) {
+		return gather(shard -> shard.partialSearch(queries, k), k);
+	}
+
+	@Override
+	public List<SearchResult> rankedSearch(List<String> queries, boolean partial, int k) {
+		return gather(shard -> shard.rankedSearch(queries, partial, k), k);
+	}
+
+	@Override
+	public List<SearchResult> conjunctiveSearch(List<String> queries, int k) {
+		return gather(shard -> shard.conjunctiveSearch(queries, k), k);
+	}
+
+	@Override
+	public List<SearchResult> phraseSearch(List<String> queries, int k) {
+		return gather(shard -> shard.phraseSearch(queries, k), k);
+	}
+
+	/**
+	 * Runs a search on every shard at once and merges the best k results of each.
+	 * The calling thread runs any shard no worker has picked up yet itself, so a
+	 * search that is already running on the work queue can't end up waiting on
+	 * tasks stuck behind it.
+	 * @param search - search to run on a shard
+	 * @param k - maximum number of results to return
+	 * @return the best k results across every shard
+	 */
+	private List<SearchResult> gather(Function<InvertedIndex, List<SearchResult>> search, int k) {
+		ShardSearchTask[] tasks = new ShardSearchTask[shards.length];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new ShardSearchTask(shards[i], search);
+			//the first shard is always searched by us, so only hand out the rest
+			if (queue != null && i > 0)
+				queue.execute(tasks[i]);
+		}
+
+		for (ShardSearchTask task : tasks)
+			task.run();
+
+		List<SearchResult> results = new ArrayList<SearchResult>();
+		for (ShardSearchTask task : tasks)
+			results.addAll(task.await());
+		return SearchResult.top(results, k);
+	}
+
+	/**
+	 * A shard that counts only its own documents for BM25.
+	 */
+	private static class Shard extends ThreadSafeInvertedIndex {
+		//which shard this is
+		private final int shard;
+		//number of shards
+		private final int count;
+
+		public Shard(DocumentTable documents, int shard, int count) {
+			super(documents);
+			this.shard = shard;
+			this.count = count;
+		}
+
+		@Override
+		protected int documentCount() {
+			//every id that picks this shard, whether or not it has been added yet
+			return (documents.size() - shard + count - 1) / count;
+		}
+	}
+
+	/**
+	 * Searches one shard under its read lock. Whichever thread runs it first
+	 * does the search; running it again does nothing.
+	 */
+	private static class ShardSearchTask implements Runnable {
+		private final Shard shard;
+		private final Function<InvertedIndex, List<SearchResult>> search;
+		//set by whichever thread runs the search
+		private final AtomicBoolean claimed;
+		private List<SearchResult> results;
+		private RuntimeException failure;
+		private boolean done;
+
+		public ShardSearchTask(Shard shard, Function<InvertedIndex, List<SearchResult>> search) {
+			this.shard = shard;
+			this.search = search;
+			this.claimed = new AtomicBoolean();
+		}
+
+		@Override
+		public void run() {
+			if (!claimed.compareAndSet(false, true))
+				return;
+
+			List<SearchResult> found = null;
+			RuntimeException thrown = null;
+			shard.getLock().lockReadOnly();
+			try {
+				found = search.apply(shard);
+			} catch (RuntimeException e) {
+				thrown = e;
+			} finally {
+				shard.getLock().unlockReadOnly();
+			}
+
+			synchronized (this) {
+				results = found;
+				failure = thrown;
+				done = true;
+				notifyAll();
+			}
+		}
+
+		/**
+		 * Waits for the search to finish.
+		 * @return results of the shard
+		 */
+		public synchronized List<SearchResult> await() {
+			while (!done) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while searching a shard.", e);
+				}
+			}
+
+			if (failure != null)
+				throw failure;
+			return results;
+		}
+	}
+}
@@ -0,0 +1,272 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A read-only, sorted dictionary of words that maps every word to its
+ * ordinal, its position in sorted order. Words that start with the same
+ * prefix always have consecutive ordinals, so a prefix turns into a range
+ * of ordinals instead of a walk through a map.
+ *
+ * Words are front-coded in blocks of {@link #BLOCK}: the first word of every
+ * block is stored in full, and every other word only stores how many chars it
+ * shares with the word before it followed by the rest of its chars. All of it
+ * lives in a single char array, so there is no object per word at all.
+ *
+ * @author Robert Macaibay
+ */
+public class TermDictionary extends AbstractList<String> implements RandomAccess {
+	//number of words in a block
+	private static final int BLOCK = 16;
+
+	//every word as shared length, suffix length and suffix chars
+	private final char[] chars;
+	//where every block starts in chars
+	private final int[] blocks;
+	//number of words
+	private final int size;
+
+	/**
+	 * Builds a dictionary out of words that are already sorted and unique.
+	 * @param words - sorted, unique words
+	 * @throws IllegalArgumentException - if the words aren't sorted or one is too long
+	 */
+	public TermDictionary(Iterable<String> words) {
+		char[] out = new char[1024];
+		int length = 0;
+		int[] starts = new int[16];
+		int count = 0;
+		String previous = null;
+
+		for (String word : words) {
+			if (word.length() > Character.MAX_VALUE)
+				throw new IllegalArgumentException("Word is too long for the dictionary: " + word.length() + " chars");
+			if (previous != null && previous.compareTo(word) >= 0)
+				throw new IllegalArgumentException("Words must be sorted and unique.");
+
+			//the first word of a block doesn't share anything so it can be searched for directly
+			int shared = 0;
+			if (count % BLOCK == 0) {
+				if (count / BLOCK == starts.length)
+					starts = Arrays.copyOf(starts, starts.length * 2);
+				starts[count / BLOCK] = length;
+			} else {
+				int max = Math.min(previous.length(), word.length());
+				while (shared < max && previous.charAt(shared) == word.charAt(shared))
+					shared++;
+			}
+
+			//make room for the two lengths and the suffix
+			int needed = length + 2 + word.length() - shared;
+			if (needed > out.length)
+				out = Arrays.copyOf(out, Math.max(needed, out.length * 2));
+
+			out[length++] = (char) shared;
+			out[length++] = (char) (word.length() - shared);
+			word.getChars(shared, word.length(), out, length);
+			length += word.length() - shared;
+
+			previous = word;
+			count++;
+		}
+
+		this.chars = Arrays.copyOf(out, length);
+		this.blocks = Arrays.copyOf(starts, (count + BLOCK - 1) / BLOCK);
+		this.size = count;
+	}
+
+	/**
+	 * Returns the number of words in the dictionary.
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the word with the given ordinal.
+	 * @param ordinal - position of the word in sorted order
+	 * @return the word
+	 */
+	@Override
+	public String get(int ordinal) {
+		if (ordinal < 0 || ordinal >= size)
+			throw new IndexOutOfBoundsException("Ordinal " + ordinal + " out of " + size);
+
+		//decode from the start of the block up to the word
+		char[] word = new char[16];
+		int length = 0;
+		int offset = blocks[ordinal / BLOCK];
+		for (int i = ordinal / BLOCK * BLOCK; i <= ordinal; i++) {
+			int shared = chars[offset];
+			int suffix = chars[offset + 1];
+			if (shared + suffix > word.length)
+				word = Arrays.copyOf(word, Math.max(shared + suffix, word.length * 2));
+			System.arraycopy(chars, offset + 2, word, shared, suffix);
+			length = shared + suffix;
+			offset += 2 + suffix;
+		}
+		return new String(word, 0, length);
+	}
+
+	/**
+	 * Finds the ordinal of a word.
+	 * @param word - word to look for
+	 * @return ordinal of the word, or -1 if it isn't in the dictionary
+	 */
+	public int ordinal(String word) {
+		//find the last block whose first word isn't past the word
+		int low = 0;
+		int high = blocks.length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int compared = compare(blocks[middle], null, 0, word, false);
+			if (compared == 0)
+				return middle * BLOCK;
+			if (compared < 0)
+				low = middle + 1;
+			else
+				high = middle - 1;
+		}
+
+		//the word comes before every word
+		if (high < 0)
+			return -1;
+
+		//the word can only be in that block, after its first word
+		char[] decoded = new char[Math.max(16, word.length())];
+		int offset = blocks[high];
+		int end = Math.min(size, (high + 1) * BLOCK);
+		for (int i = high * BLOCK; i < end; i++) {
+			int shared = chars[offset];
+			int suffix = chars[offset + 1];
+			if (shared + suffix > decoded.length)
+				decoded = Arrays.copyOf(decoded, Math.max(shared + suffix, decoded.length * 2));
+			System.arraycopy(chars, offset + 2, decoded, shared, suffix);
+			offset += 2 + suffix;
+
+			int compared = compare(-1, decoded, shared + suffix, word, false);
+			if (compared == 0)
+				return i;
+			//the words are sorted, so once we're past it the word isn't here
+			if (compared > 0)
+				return -1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the first word that is not less than the query.
+	 * @param query - word or prefix to look for
+	 * @return ordinal of that word, or the size if there is none
+	 */
+	public int lowerBound(String query) {
+		//find the last block whose first word is less than the query
+		int low = 0;
+		int high = blocks.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (compare(blocks[middle], null, 0, query, false) < 0)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+
+		//the query comes before every word
+		if (low == 0)
+			return 0;
+		return scan(low - 1, query, false, false);
+	}
+
+	/**
+	 * Finds the end of the range of words that start with a prefix.
+	 * @param prefix - prefix to look for
+	 * @return ordinal right after the last word starting with the prefix
+	 */
+	public int prefixEnd(String prefix) {
+		//words that start with the prefix count as equal to it, so skip past all of them
+		int low = 0;
+		int high = blocks.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (compare(blocks[middle], null, 0, prefix, true) <= 0)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+
+		//the range ends somewhere in the block before the first block that is past it
+		if (low == 0)
+			return 0;
+		return scan(low - 1, prefix, true, true);
+	}
+
+	/**
+	 * Walks through a block looking for the first word past the query.
+	 * @param block - block to walk through
+	 * @param query - word or prefix to look for
+	 * @param prefix - if true, words that start with the query count as equal
+	 * @param after - if true, find the first word greater than the query, otherwise the first not less than it
+	 * @return ordinal of that word, which is the start of the next block if every word in this one comes first
+	 */
+	private int scan(int block, String query, boolean prefix, boolean after) {
+		char[] word = new char[16];
+		int offset = blocks[block];
+		int end = Math.min(size, (block + 1) * BLOCK);
+
+		for (int i = block * BLOCK; i < end; i++) {
+			int shared = chars[offset];
+			int suffix = chars[offset + 1];
+			if (shared + suffix > word.length)
+				word = Arrays.copyOf(word, Math.max(shared + suffix, word.length * 2));
+			System.arraycopy(chars, offset + 2, word, shared, suffix);
+			offset += 2 + suffix;
+
+			int compared = compare(-1, word, shared + suffix, query, prefix);
+			if (after ? compared > 0 : compared >= 0)
+				return i;
+		}
+		return end;
+	}
+
+	/**
+	 * Compares a word to a query the same way {@link String#compareTo(String)} would.
+	 * The word is either the full word stored at an offset in chars or a decoded word.
+	 * @param offset - offset of a word stored in full, or -1 to use the decoded word
+	 * @param word - decoded word, only used if offset is -1
+	 * @param length - length of the decoded word
+	 * @param query - query to compare to
+	 * @param prefix - if true, a word that starts with the query counts as equal
+	 * @return negative, zero or positive if the word is less than, equal to or greater than the query
+	 */
+	private int compare(int offset, char[] word, int length, String query, boolean prefix) {
+		char[] source = word;
+		int start = 0;
+		if (offset >= 0) {
+			//words at the start of a block share nothing, so their suffix is the whole word
+			source = chars;
+			length = chars[offset + 1];
+			start = offset + 2;
+		}
+
+		int shared = Math.min(length, query.length());
+		for (int i = 0; i < shared; i++) {
+			char c = source[start + i];
+			if (c != query.charAt(i))
+				return c - query.charAt(i);
+		}
+
+		if (prefix && length >= query.length())
+			return 0;
+		return length - query.length();
+	}
+
+	/**
+	 * Returns roughly how many bytes the dictionary takes up in the heap.
+	 * @return size in bytes
+	 */
+	public long memory() {
+		//object headers, the two arrays and their headers
+		return 16 + 16 + (long) chars.length * 2 + 16 + (long) blocks.length * 4;
+	}
+}
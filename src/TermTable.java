@@ -0,0 +1,173 @@
+/**
+ * Hands out one String for every distinct word, so a word found a million
+ * times while building an index is only ever made into a String once. Words
+ * are looked up straight from the chars they were parsed into, so finding a
+ * word that was seen before doesn't make anything.
+ *
+ * The table is split into stripes by hash, each an open addressing table of
+ * its own. Looking up a word that is already there doesn't lock anything:
+ * the Strings in the table never change, so whatever a lookup finds is safe
+ * to use even while another thread adds to the same stripe. Only a word that
+ * isn't found locks its stripe, looks again, and adds it if it's still missing.
+ * Threads adding different words rarely wait on each other since they
+ * usually land in different stripes.
+ *
+ * @author Robert Macaibay
+ */
+public class TermTable {
+	//number of stripes, a power of two
+	private static final int STRIPES = 64;
+	//number of slots a stripe starts with, a power of two
+	private static final int SLOTS = 256;
+
+	//every stripe, picked by the low bits of a word's hash
+	private final Stripe[] stripes;
+
+	/**
+	 * Creates an empty table.
+	 */
+	public TermTable() {
+		this.stripes = new Stripe[STRIPES];
+		for (int i = 0; i < STRIPES; i++)
+			stripes[i] = new Stripe();
+	}
+
+	/**
+	 * Gets the String of a word, making it the first time the word is seen.
+	 * @param chars - array holding the word
+	 * @param off - where the word starts
+	 * @param len - number of chars in the word
+	 * @return the one String of that word
+	 */
+	public String intern(char[] chars, int off, int len) {
+		//same hash as String.hashCode(), so the Strings can compare theirs
+		int hash = 0;
+		for (int i = off; i < off + len; i++)
+			hash = 31 * hash + chars[i];
+
+		int spread = hash ^ (hash >>> 16);
+		Stripe stripe = stripes[spread & (STRIPES - 1)];
+		String term = stripe.find(stripe.terms, chars, off, len, hash, spread);
+		return term != null ? term : stripe.add(chars, off, len, hash, spread);
+	}
+
+	/**
+	 * Returns the number of distinct words in the table.
+	 * @return number of words
+	 */
+	public int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.size;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * An open addressing table of words. The slots of a word are picked by the
+	 * bits of its hash above the ones that picked the stripe.
+	 */
+	private static class Stripe {
+		//every word in this stripe, replaced by a bigger array when half full
+		private volatile String[] terms;
+		//number of words in this stripe
+		private int size;
+
+		public Stripe() {
+			this.terms = new String[SLOTS];
+		}
+
+		/**
+		 * Looks for a word without locking. A slot being filled in by another
+		 * thread may still look empty, so not finding a word only means it has
+		 * to be looked for again under the lock.
+		 * @param terms - slots to look in
+		 * @param chars - array holding the word
+		 * @param off - where the word starts
+		 * @param len - number of chars in the word
+		 * @param hash - hash of the word
+		 * @param spread - mixed bits of the hash
+		 * @return the String of the word, or null if it wasn't found
+		 */
+		public String find(String[] terms, char[] chars, int off, int len, int hash, int spread) {
+			int mask = terms.length - 1;
+			for (int slot = (spread >>> 6) & mask; ; slot = (slot + 1) & mask) {
+				String term = terms[slot];
+				if (term == null)
+					return null;
+				if (term.hashCode() == hash && matches(term, chars, off, len))
+					return term;
+			}
+		}
+
+		/**
+		 * Looks for a word again under the lock, and adds it if it still isn't there.
+		 * @param chars - array holding the word
+		 * @param off - where the word starts
+		 * @param len - number of chars in the word
+		 * @param hash - hash of the word
+		 * @param spread - mixed bits of the hash
+		 * @return the String of the word
+		 */
+		public synchronized String add(char[] chars, int off, int len, int hash, int spread) {
+			String[] terms = this.terms;
+			String term = find(terms, chars, off, len, hash, spread);
+			if (term != null)
+				return term;
+
+			//keep at least half of the slots empty so lookups stay short
+			if (2 * (size + 1) > terms.length)
+				terms = grow(terms);
+
+			term = new String(chars, off, len);
+			int mask = terms.length - 1;
+			int slot = (spread >>> 6) & mask;
+			while (terms[slot] != null)
+				slot = (slot + 1) & mask;
+			terms[slot] = term;
+			size++;
+			return term;
+		}
+
+		/**
+		 * Moves every word into twice as many slots, and publishes them once they're all in.
+		 * @param terms - slots the words are in now
+		 * @return the new slots
+		 */
+		private String[] grow(String[] terms) {
+			String[] bigger = new String[terms.length * 2];
+			int mask = bigger.length - 1;
+			for (String term : terms) {
+				if (term == null)
+					continue;
+				int hash = term.hashCode();
+				int slot = ((hash ^ (hash >>> 16)) >>> 6) & mask;
+				while (bigger[slot] != null)
+					slot = (slot + 1) & mask;
+				bigger[slot] = term;
+			}
+			this.terms = bigger;
+			return bigger;
+		}
+
+		/**
+		 * Checks whether a String has the same chars as a word.
+		 * @param term - String to check
+		 * @param chars - array holding the word
+		 * @param off - where the word starts
+		 * @param len - number of chars in the word
+		 * @return true if they're the same
+		 */
+		private static boolean matches(String term, char[] chars, int off, int len) {
+			if (term.length() != len)
+				return false;
+			for (int i = 0; i < len; i++) {
+				if (term.charAt(i) != chars[off + i])
+					return false;
+			}
+			return true;
+		}
+	}
+}
@@ -1,5 +1,7 @@
+import java.util.ArrayList;
 import java.util.List;
 import java.util.TreeMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -10,13 +12,27 @@ import java.util.stream.Collectors;
 public class ThreadSafeInvertedIndex extends InvertedIndex {
 	//private lock to prevent concurrency problems
 	private ReadWriteLock lock;
+	//private index each thread builds into without locking
+	private ThreadLocal<InvertedIndex> partial;
+	//partial indexes that haven't been merged in yet
+	private List<InvertedIndex> partials;
 
 	/**
 	 * default constructor
 	 */
 	public ThreadSafeInvertedIndex() {
-		super();
+		this(new DocumentTable());
+	}
+
+	/**
+	 * Creates an index that shares a table of document ids with other indexes
+	 * @param documents - table of document ids
+	 */
+	public ThreadSafeInvertedIndex(DocumentTable documents) {
+		super(documents);
 		lock = new ReadWriteLock();
+		partial = new ThreadLocal<>();
+		partials = new ArrayList<>();
 	}
 
 	/**
@@ -51,12 +67,106 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 * @param start - starting position
 	 */
 	public void addAll(String[] words, String path, int start) {
+		//only look up the id of the path once
+		int document = documents.add(path);
+		if (start <= words.length)
+			documents.updateLength(document, words.length);
 		lock.lockReadWrite();
 		for (int i = start; i <= words.length; i++)
-			super.add(words[i - 1], path, i);
+			super.add(words[i - 1], document, i);
+		cache.invalidate();
 		lock.unlockReadWrite();
 	}
 
+	/**
+	 * Adds the next batch of words of a document... safely
+	 *
+	 * @param words - array holding the batch
+	 * @param count - number of words in the batch, starting at the beginning of the array
+	 * @param path - path to html/htm file
+	 * @param offset - number of words of the document added before this batch
+	 */
+	public void addBatch(String[] words, int count, String path, int offset) {
+		//only look up the id of the path once
+		int document = documents.add(path);
+		if (count > 0)
+			documents.updateLength(document, offset + count);
+		lock.lockReadWrite();
+		for (int i = 0; i < count; i++)
+			super.add(words[i], document, offset + i + 1);
+		cache.invalidate();
+		lock.unlockReadWrite();
+	}
+
+	/**
+	 * Merges every word of another index into this one... safely
+	 * @param other - index to merge into this one
+	 */
+	public void addAll(InvertedIndex other) {
+		lock.lockReadWrite();
+		try {
+			super.addAll(other);
+		} finally {
+			lock.unlockReadWrite();
+		}
+	}
+
+	/**
+	 * Gets the private index of the calling thread, creating it if needed. Words
+	 * added to it don't take any lock and aren't searchable until
+	 * {@link #mergePartials(WorkQueue)} is called.
+	 * @return private index of this thread, sharing our document table
+	 */
+	public InvertedIndex getPartial() {
+		InvertedIndex p = partial.get();
+
+		synchronized (partials) {
+			//start a new one if we never had one or it was already merged in
+			if (p == null || !partials.contains(p)) {
+				p = new InvertedIndex(documents);
+				partials.add(p);
+				partial.set(p);
+			}
+		}
+
+		return p;
+	}
+
+	/**
+	 * Merges every private index built so far into this one. Pairs of partial
+	 * indexes are merged in parallel on the work queue until one is left, which
+	 * is then merged in under the write lock. Nothing may still be adding to a
+	 * partial index while this runs, so call it after {@link WorkQueue#finish()}.
+	 * @param queue - work queue to merge with
+	 */
+	public void mergePartials(WorkQueue queue) {
+		List<InvertedIndex> merging;
+		synchronized (partials) {
+			merging = new ArrayList<>(partials);
+			partials.clear();
+		}
+
+		if (merging.isEmpty())
+			return;
+
+		//merge pairs at the same time until we only have one left
+		while (merging.size() > 1) {
+			List<InvertedIndex> merged = new ArrayList<>();
+			for (int i = 0; i < merging.size(); i += 2) {
+				InvertedIndex first = merging.get(i);
+				merged.add(first);
+				if (i + 1 < merging.size()) {
+					InvertedIndex second = merging.get(i + 1);
+					queue.execute(() -> first.addAll(second));
+				}
+			}
+			queue.finish();
+			merging = merged;
+		}
+
+		addAll(merging.get(0));
+	}
+
 	/**
 	 * Returns a copy of the words in this index as a sorted list... safely
 	 * @return sorted list of paths
@@ -83,75 +193,91 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 			lock.unlockReadOnly();
 		}
 	}
+
+	/**
+	 * Copies this index into a read-only {@link FrozenInvertedIndex}... safely
+	 * @return frozen copy of this index
+	 */
+	public InvertedIndex freeze() {
+		lock.lockReadOnly();
+		try {
+			return super.freeze();
+		} finally {
+			lock.unlockReadOnly();
+		}
+	}
 	
 	/**
 	 * Gets the ReadWriteLock associated for this index. Used for the search tasks explicitly
 	 * @return the ReadWriteLock
 	 */
-	private ReadWriteLock getLock() {
+	protected ReadWriteLock getLock() {
 		return lock;
 	}
 
 	/**
-	 * Executes an exact search
+	 * Executes one kind of search for one query line
 	 * 
 	 * @author Robert Macaibay
 	 */
-	public static class ExactSearchTask implements Runnable {
+	public static class SearchTask implements Runnable {
 		private InvertedIndex index;
+		private VersionedIndex versions;
 		private TreeMap<String, List<SearchResult>> map;
-		private List<String> queries;
+		private Function<InvertedIndex, List<SearchResult>> search;
 		private String word;
 		private ReadWriteLock lock;
 
-		public ExactSearchTask(InvertedIndex index, TreeMap<String, List<SearchResult>> map, List<String> queries) {
+		/**
+		 * Creates a task that searches an index
+		 * @param index - index to search
+		 * @param map - map of query lines to search results
+		 * @param queries - list of queries, which the results are saved under
+		 * @param search - search to run on the index
+		 */
+		public SearchTask(InvertedIndex index, TreeMap<String, List<SearchResult>> map, List<String> queries, Function<InvertedIndex, List<SearchResult>> search) {
 			this.index = index;
+			this.versions = null;
 			this.map = map;
-			this.queries = queries;
+			this.search = search;
 			this.word = queries.stream().collect(Collectors.joining(" "));
-			this.lock = ((ThreadSafeInvertedIndex)index).getLock();
-		}
-
-		@Override
-		public void run() {
-			lock.lockReadOnly();
-			//gets a list of results for a particular line query
-			List<SearchResult> results = index.exactSearch(queries);
-			lock.unlockReadOnly();
-
-			//save it into the full map
-			synchronized (map) {
-				map.put(word, results);
-			}
+			//only the thread-safe index needs locking, the others can be searched as they are
+			this.lock = index instanceof ThreadSafeInvertedIndex ? ((ThreadSafeInvertedIndex)index).getLock() : null;
 		}
-	}
-
-	/**
-	 * Executes a partial search
-	 * 
-	 * @author Robert Macaibay
-	 */
-	public static class PartialSearchTask implements Runnable {
-		private InvertedIndex index;
-		private TreeMap<String, List<SearchResult>> map;
-		private List<String> queries;
-		private String word;
-		private ReadWriteLock lock;
 
-		public PartialSearchTask(InvertedIndex index, TreeMap<String, List<SearchResult>> map, List<String> queries) {
-			this.index = index;
+		/**
+		 * Creates a task that searches whichever generation of the index is current when it runs
+		 * @param versions - published generations of the index
+		 * @param map - map of query lines to search results
+		 * @param queries - list of queries, which the results are saved under
+		 * @param search - search to run on the generation
+		 */
+		public SearchTask(VersionedIndex versions, TreeMap<String, List<SearchResult>> map, List<String> queries, Function<InvertedIndex, List<SearchResult>> search) {
+			this.index = null;
+			this.versions = versions;
 			this.map = map;
-			this.queries = queries;
-			this.word = queries.stream().collect(Collectors.joining(" "));;
-			this.lock = ((ThreadSafeInvertedIndex)index).getLock();
+			this.search = search;
+			this.word = queries.stream().collect(Collectors.joining(" "));
+			this.lock = null;
 		}
 
 		@Override
 		public void run() {
-			lock.lockReadOnly();
+			//a published generation never changes, so pinning it is all we need instead of a lock
+			InvertedIndex searching = versions != null ? versions.pin() : index;
+
 			//gets a list of results for a particular line query
-			List<SearchResult> results = index.partialSearch(queries);
-			lock.unlockReadOnly();
+			List<SearchResult> results;
+			if (lock != null) {
+				lock.lockReadOnly();
+				try {
+					results = search.apply(searching);
+				} finally {
+					lock.unlockReadOnly();
+				}
+			} else {
+				results = search.apply(searching);
+			}
 
 			//save it into the full map
 			synchronized (map) {
@@ -0,0 +1,78 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current generation of an index so it can be searched without any
+ * locks while the next generation is built. A generation is never changed
+ * once it is published: writers build a whole new index and publish it, and
+ * searches pin whichever generation is current when they start, so every
+ * search sees one consistent version of the index.
+ *
+ * Old generations don't need to be released by hand. Once the last search
+ * that pinned one finishes, nothing references it anymore and the garbage
+ * collector reclaims it.
+ *
+ * @author Robert Macaibay
+ */
+public class VersionedIndex {
+	//generation searches should use
+	private final AtomicReference<Generation> current;
+
+	/**
+	 * Creates an empty holder with nothing published yet.
+	 */
+	public VersionedIndex() {
+		current = new AtomicReference<>(new Generation(null, 0));
+	}
+
+	/**
+	 * Creates a holder that starts out with an index already published.
+	 * @param index - first generation of the index
+	 */
+	public VersionedIndex(InvertedIndex index) {
+		this();
+		publish(index);
+	}
+
+	/**
+	 * Gets the current generation of the index. The returned index won't change,
+	 * so it can be searched for as long as needed without taking any lock.
+	 * @return current generation or null if nothing was published yet
+	 */
+	public InvertedIndex pin() {
+		return current.get().index;
+	}
+
+	/**
+	 * Returns the version of the current generation, which goes up by one every publish.
+	 * @return current version, or 0 if nothing was published yet
+	 */
+	public long getVersion() {
+		return current.get().version;
+	}
+
+	/**
+	 * Makes a fully built index the current generation. Searches that already
+	 * pinned an older generation keep using it until they finish. Nothing may
+	 * add to the index after it is published.
+	 * @param index - new generation of the index
+	 */
+	public void publish(InvertedIndex index) {
+		Generation prev;
+		do {
+			prev = current.get();
+		} while (!current.compareAndSet(prev, new Generation(index, prev.version + 1)));
+	}
+
+	/**
+	 * A published index and its version, swapped in together so they always match.
+	 */
+	private static class Generation {
+		private final InvertedIndex index;
+		private final long version;
+
+		public Generation(InvertedIndex index, long version) {
+			this.index = index;
+			this.version = version;
+		}
+	}
+}
@@ -0,0 +1,171 @@
+import java.util.Locale;
+
+/**
+ * Splits text into the same words as {@link WordParser#parseWords(String)},
+ * without the empty ones, but in one pass over the text and without making
+ * any Strings along the way. Every word is lowercased into a buffer that is
+ * reused for the next word, so whoever receives the words decides whether
+ * they're worth copying.
+ *
+ * Text is looked at one piece at a time, where pieces are separated by ASCII
+ * whitespace. Words never go across whitespace, and nothing normalizes or
+ * lowercases differently because of what's on the other side of it, so every
+ * piece can be parsed on its own. A piece that is all ASCII is the common case:
+ * normalizing it changes nothing, its words are just its runs of letters, and
+ * those lowercase one char at a time. Any other piece goes through
+ * {@link WordParser} like before, so accented letters and other scripts come
+ * out exactly the same.
+ *
+ * @author Robert Macaibay
+ */
+public class WordTokenizer {
+	//buffer every word is lowercased into
+	private char[] word;
+
+	/**
+	 * Creates a tokenizer.
+	 */
+	public WordTokenizer() {
+		this.word = new char[64];
+	}
+
+	/**
+	 * Splits text into words and passes them on in order.
+	 * @param text - array holding the text
+	 * @param off - where the text starts
+	 * @param len - number of chars of text
+	 * @param out - where the words go
+	 */
+	public void tokenize(char[] text, int off, int len, Sink out) {
+		//lowercasing follows the default locale like String.toLowerCase(), and only
+		//turkic languages lowercase any ASCII letter to something else than usual
+		String language = Locale.getDefault().getLanguage();
+		boolean dotless = language.equals("tr") || language.equals("az");
+
+		int end = off + len;
+		int i = off;
+		while (i < end) {
+			//skip ahead to the next piece
+			while (i < end && isSpace(text[i]))
+				i++;
+			int start = i;
+			boolean ascii = true;
+			while (i < end && !isSpace(text[i])) {
+				char c = text[i++];
+				if (c >= 0x80 || (dotless && c == 'I'))
+					ascii = false;
+			}
+
+			if (start == i)
+				break;
+			if (ascii)
+				asciiWords(text, start, i, out);
+			else
+				parsedWords(text, start, i, out);
+		}
+	}
+
+	/**
+	 * Passes on the runs of letters of a piece of ASCII text, lowercased.
+	 * @param text - array holding the text
+	 * @param start - where the piece starts
+	 * @param end - where the piece ends
+	 * @param out - where the words go
+	 */
+	private void asciiWords(char[] text, int start, int end, Sink out) {
+		int length = 0;
+		for (int i = start; i < end; i++) {
+			char c = text[i];
+			if (c >= 'a' && c <= 'z') {
+				add(length++, c);
+			} else if (c >= 'A' && c <= 'Z') {
+				add(length++, (char) (c + ('a' - 'A')));
+			} else if (length > 0) {
+				//anything else that isn't a letter ends the word
+				out.word(word, 0, length);
+				length = 0;
+			}
+		}
+
+		if (length > 0)
+			out.word(word, 0, length);
+	}
+
+	/**
+	 * Passes on the words of a piece of text that isn't all ASCII, found by {@link WordParser}.
+	 * @param text - array holding the text
+	 * @param start - where the piece starts
+	 * @param end - where the piece ends
+	 * @param out - where the words go
+	 */
+	private void parsedWords(char[] text, int start, int end, Sink out) {
+		for (String parsed : WordParser.parseWords(new String(text, start, end - start))) {
+			//somehow the parser finds empty strings(?)... so lets just ignore those
+			if (parsed.isEmpty())
+				continue;
+			for (int i = 0; i < parsed.length(); i++)
+				add(i, parsed.charAt(i));
+			out.word(word, 0, parsed.length());
+		}
+	}
+
+	/**
+	 * Puts a char into the word buffer, making it bigger if it has to be.
+	 * @param i - where in the word the char goes
+	 * @param c - char to put in
+	 */
+	private void add(int i, char c) {
+		if (i == word.length) {
+			char[] bigger = new char[word.length * 2];
+			System.arraycopy(word, 0, bigger, 0, i);
+			word = bigger;
+		}
+		word[i] = c;
+	}
+
+	/**
+	 * Checks for ASCII whitespace, which the parser always splits words on.
+	 * @param c - char to check
+	 * @return true if words never go across this char
+	 */
+	public static boolean isSpace(char c) {
+		return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' || c == 0x0B;
+	}
+
+	/**
+	 * Checks whether text can be split between two chars without changing its
+	 * words, for text that doesn't have much ASCII whitespace to split on.
+	 * Besides right after ASCII whitespace, that's after an ASCII digit or
+	 * punctuation that is never part of a word, that lowercasing doesn't skip
+	 * over when it looks at the letters around a sigma, and that the next char
+	 * can't combine with. Other whitespace isn't used, since lowercasing a sigma
+	 * can look past it.
+	 * @param before - char before the split
+	 * @param after - char after the split
+	 * @return true if the text on either side can be parsed on its own
+	 */
+	public static boolean isBreak(char before, char after) {
+		if (isSpace(before))
+			return true;
+		if (before >= 0x80 || Character.isLetter(before) || ".:'^`".indexOf(before) >= 0)
+			return false;
+
+		//a combining mark could still join the char before it, like < and a slash make a not less than
+		int type = Character.getType(after);
+		return !Character.isSurrogate(after) && type != Character.NON_SPACING_MARK
+				&& type != Character.ENCLOSING_MARK && type != Character.COMBINING_SPACING_MARK;
+	}
+
+	/**
+	 * Receives words from a tokenizer.
+	 */
+	public interface Sink {
+		/**
+		 * Receives the next word. The array is reused once this returns.
+		 * @param chars - array holding the word
+		 * @param off - where the word starts
+		 * @param len - number of chars in the word
+		 */
+		public void word(char[] chars, int off, int len);
+	}
+}